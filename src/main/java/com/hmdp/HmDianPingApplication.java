@@ -4,6 +4,7 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -11,6 +12,7 @@ import java.util.concurrent.Executors;
 @MapperScan("com.hmdp.mapper")
 @SpringBootApplication
 @EnableAspectJAutoProxy(exposeProxy = true)
+@EnableScheduling
 public class HmDianPingApplication {
 
     public static void main(String[] args) {
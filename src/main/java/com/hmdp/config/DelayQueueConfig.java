@@ -0,0 +1,33 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisDelayQueue;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.ORDER_UNPAID_DELAY_KEY;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/5
+ * @description DelayQueueConfig 延迟队列配置
+ */
+@Configuration
+public class DelayQueueConfig {
+
+    /**
+     * 超时未支付订单取消队列
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public RedisDelayQueue unpaidOrderQueue(StringRedisTemplate stringRedisTemplate,
+                                            @Lazy IVoucherOrderService voucherOrderService) {
+        return new RedisDelayQueue(ORDER_UNPAID_DELAY_KEY, stringRedisTemplate,
+                orderIds -> voucherOrderService.cancelUnpaidOrders(
+                        orderIds.stream().map(Long::valueOf).collect(Collectors.toList())),
+                100);
+    }
+}
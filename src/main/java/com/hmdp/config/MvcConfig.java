@@ -1,9 +1,13 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdaptiveConcurrencyLimiter;
+import com.hmdp.utils.ConcurrencyLimitInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SessionCache;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -18,7 +22,13 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionCache sessionCache;
+
+    @Resource
+    private SeckillRateLimiter seckillRateLimiter;
+
+    @Resource
+    private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -27,13 +37,22 @@ public class MvcConfig implements WebMvcConfigurer {
                 .excludePathPatterns(
                         "/shop/**",
                         "/shop-type/**",
-                        "/upload/**",
-                        "/voucher/**",
+                        "/imgs/**",
+                        "/voucher/list/**",
                         "/blog/hot",
+                        "/blog/{id}",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/actuator/**"
                 ).order(1);
+        // 秒杀限流拦截器，在登录拦截之后、进入下单逻辑之前执行
+        registry.addInterceptor(new RateLimitInterceptor(seckillRateLimiter))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
+        // 秒杀并发限制拦截器，限流通过后再占用并发名额
+        registry.addInterceptor(new ConcurrencyLimitInterceptor(adaptiveConcurrencyLimiter))
+                .addPathPatterns("/voucher-order/seckill/**").order(3);
         // token刷新拦截器，优先执行
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionCache)).addPathPatterns("/**")
+                .excludePathPatterns("/imgs/**").order(0);
     }
 }
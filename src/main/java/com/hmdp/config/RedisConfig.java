@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/20
+ * @description RedisConfig Redis发布订阅配置
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 订阅消息的监听容器，各组件在初始化时注册自己关心的频道
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+}
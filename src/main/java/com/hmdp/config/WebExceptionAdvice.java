@@ -1,17 +1,21 @@
 package com.hmdp.config;
 
 import com.hmdp.dto.Result;
+import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import javax.servlet.http.HttpServletRequest;
+
 @Slf4j
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
     @ExceptionHandler(RuntimeException.class)
-    public Result handleRuntimeException(RuntimeException e) {
+    public Result handleRuntimeException(RuntimeException e, HttpServletRequest request) {
         log.error(e.toString(), e);
+        request.setAttribute(SystemConstants.REQUEST_FAILED_ATTRIBUTE, e);
         return Result.fail("服务器异常");
     }
 }
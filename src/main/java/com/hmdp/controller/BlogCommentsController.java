@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +20,25 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    @GetMapping("/of/blog/{id}")
+    public Result queryComments(@PathVariable("id") Long blogId,
+                                @RequestParam(value = "lastTime", required = false) Long lastTime,
+                                @RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogCommentsService.queryComments(blogId, lastTime, lastId);
+    }
+
+    @GetMapping("/replies/{id}")
+    public Result queryReplies(@PathVariable("id") Long parentId,
+                               @RequestParam(value = "lastTime", required = false) Long lastTime,
+                               @RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogCommentsService.queryReplies(parentId, lastTime, lastId);
+    }
 }
@@ -0,0 +1,270 @@
+package com.hmdp.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.utils.ImageProcessor;
+import com.hmdp.utils.ImageStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.IMAGE_DELETE_CHANNEL;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/18
+ * @description ImageController 图片访问，单机部署时不再依赖nginx
+ * 支持Range断点续传、ETag/Last-Modified条件请求；大文件交给Tomcat的sendfile零拷贝发送，
+ * 不支持sendfile时用FileChannel.transferTo写出；按内容寻址的小图（缩略图）缓存在内存中，图片删除时按通知清除。
+ * 只提供博文图片和头像，其他文件（如上传中的临时文件）不能访问
+ */
+@Slf4j
+@RestController
+@RequestMapping("/imgs")
+public class ImageController implements MessageListener {
+
+    /**
+     * 超过该大小使用sendfile，与Tomcat DefaultServlet一致
+     */
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    /**
+     * 不超过该大小的图片缓存在内存中
+     */
+    private static final int CACHE_MAX_FILE_SIZE = 32 * 1024;
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * 按内容寻址的图片内容不变，可长期缓存
+     */
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "public, max-age=86400";
+
+    @Resource
+    private ImageStore imageStore;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 小图内存缓存，总大小不超过16MB；按写入时间过期，删除通知与读取并发时缓存的旧内容最多保留10分钟
+     */
+    private final Cache<String, CachedImage> smallImages = Caffeine.newBuilder()
+            .maximumWeight(16 * 1024 * 1024)
+            .weigher((String name, CachedImage image) -> image.bytes.length)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(IMAGE_DELETE_CHANNEL));
+    }
+
+    /**
+     * 图片删除后清除原图及其变体的缓存
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String name = new String(message.getBody(), StandardCharsets.UTF_8);
+        smallImages.invalidate(name);
+        smallImages.invalidate(ImageProcessor.variantName(name, ImageProcessor.THUMBNAIL_SUFFIX));
+        smallImages.invalidate(ImageProcessor.variantName(name, ImageProcessor.WEB_SUFFIX));
+    }
+
+    @RequestMapping(value = "/**", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        String name = path.substring("/imgs".length());
+        boolean immutable = ImageStore.isContentAddressed(name);
+        // 1.小图优先读内存
+        CachedImage cached = immutable ? smallImages.getIfPresent(name) : null;
+        File file = null;
+        long length;
+        long lastModified;
+        if (cached != null) {
+            length = cached.bytes.length;
+            lastModified = cached.lastModified;
+        } else {
+            file = imageStore.resolvePublic(name);
+            if (file == null || !file.isFile()) {
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+                response.sendError(HttpStatus.NOT_FOUND.value());
+                return;
+            }
+            length = file.length();
+            lastModified = file.lastModified();
+        }
+        // 2.条件请求
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, immutable ? IMMUTABLE : REVALIDATE);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (notModified(request, etag, lastModified)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        // 3.范围请求
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && ifRangeMatches(request, etag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        MediaType type = MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        response.setContentType(type.toString());
+        response.setContentLengthLong(count);
+        if (RequestMethod.HEAD.name().equals(request.getMethod())) {
+            return;
+        }
+        // 4.写出内容
+        if (cached == null && immutable && length <= CACHE_MAX_FILE_SIZE) {
+            cached = new CachedImage(Files.readAllBytes(file.toPath()), lastModified);
+            smallImages.put(name, cached);
+        }
+        if (cached != null) {
+            response.getOutputStream().write(cached.bytes, (int) start, (int) count);
+        } else if (count >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 由Tomcat在请求处理结束后用sendfile发送，数据不经过用户态
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            transfer(file, start, count, response.getOutputStream());
+        }
+    }
+
+    private void transfer(File file, long start, long count, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    private boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return "*".equals(ifNoneMatch.trim()) || ifNoneMatch.contains(etag);
+        }
+        long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        // Last-Modified只精确到秒
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * If-Range不匹配时忽略Range，返回完整内容
+     */
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return lastModified / 1000 == request.getDateHeader(HttpHeaders.IF_RANGE) / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析单个范围 bytes=start-end、bytes=start-、bytes=-suffix
+     *
+     * @return 范围不可满足返回null；多个范围或无法解析时返回空数组，按完整内容返回
+     */
+    private long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static final class CachedImage {
+        private final byte[] bytes;
+        private final long lastModified;
+
+        private CachedImage(byte[] bytes, long lastModified) {
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+        }
+    }
+}
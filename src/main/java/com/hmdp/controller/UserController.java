@@ -60,9 +60,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout() {
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token) {
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -72,6 +71,15 @@ public class UserController {
         return Result.ok(user);
     }
 
+    /**
+     * 修改昵称、头像
+     */
+    @PutMapping("/me")
+    public Result updateProfile(@RequestHeader(value = "authorization", required = false) String token,
+                                @RequestBody UserDTO profile) {
+        return userService.updateProfile(token, profile);
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId) {
         // 查询详情
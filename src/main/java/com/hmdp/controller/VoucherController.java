@@ -32,7 +32,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -47,6 +47,17 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 修改优惠券状态
+     * @param id 优惠券id
+     * @param status 1,上架; 2,下架; 3,过期
+     * @return 无
+     */
+    @PutMapping("/{id}/status/{status}")
+    public Result updateStatus(@PathVariable("id") Long id, @PathVariable("status") Integer status) {
+        return voucherService.updateStatus(id, status);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -1,14 +1,19 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.IdempotentExecutor;
+import com.hmdp.utils.OrderStatusCache;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -25,8 +30,66 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private IdempotentExecutor idempotentExecutor;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Resource
+    private OrderStatusCache orderStatusCache;
+
+    /**
+     * 秒杀排队取号
+     *
+     * @param voucherId 优惠券id
+     */
+    @PostMapping("queue/{id}")
+    public Result enqueue(@PathVariable("id") Long voucherId) {
+        return seckillWaitingRoom.enqueue(voucherId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 查询排队状态，放行后再调用秒杀下单
+     *
+     * @param voucherId 优惠券id
+     */
+    @GetMapping("queue/{id}")
+    public Result queueStatus(@PathVariable("id") Long voucherId) {
+        return seckillWaitingRoom.status(voucherId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 秒杀下单
+     *
+     * @param voucherId      优惠券id
+     * @param idempotencyKey 幂等键，客户端重试时携带相同的值，只会下单一次并返回首次结果
+     */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        UserDTO user = UserHolder.getUser();
+        if (StrUtil.isBlank(idempotencyKey) || user == null) {
+            return voucherOrderService.seckillVoucher(voucherId);
+        }
+        if (idempotencyKey.length() > 64) {
+            return Result.fail("幂等键过长!");
+        }
+        String scope = "seckill:" + voucherId + ":" + user.getId();
+        return idempotentExecutor.execute(scope, idempotencyKey,
+                () -> voucherOrderService.seckillVoucher(voucherId), voucherOrderService::isRetryable);
+    }
+
+    /**
+     * 查询异步下单结果，只能查询自己的订单
+     *
+     * @param orderId 秒杀下单返回的订单id
+     * @param wait    长轮询等待秒数，订单处理中时最多挂起该时间，0为立即返回
+     */
+    @GetMapping("status/{orderId}")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("orderId") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Integer wait) {
+        long timeout = TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(wait, 30)));
+        return orderStatusCache.await(orderId, UserHolder.getUser().getId(), timeout);
     }
 }
@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 图片上传结果，缩略图、网页图在后台生成，生成完成前不可访问
+ */
+@Data
+public class ImageUploadDTO {
+    /**
+     * 原图
+     */
+    private String name;
+    /**
+     * 缩略图，不支持处理的格式为空
+     */
+    private String thumbnail;
+    /**
+     * 网页展示图，不支持处理的格式为空
+     */
+    private String web;
+}
@@ -0,0 +1,26 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 异步下单结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStatusDTO {
+    public static final String PENDING = "PENDING";
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILED = "FAILED";
+
+    /**
+     * 订单id
+     */
+    private Long orderId;
+    /**
+     * PENDING:排队处理中 SUCCESS:下单成功 FAILED:下单失败
+     */
+    private String status;
+}
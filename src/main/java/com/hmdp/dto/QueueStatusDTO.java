@@ -0,0 +1,26 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 秒杀排队状态
+ */
+@Data
+public class QueueStatusDTO {
+    /**
+     * 排队号码
+     */
+    private Long ticket;
+    /**
+     * 前面还有多少人
+     */
+    private Long ahead;
+    /**
+     * 是否已放行，放行后才能下单
+     */
+    private Boolean admitted;
+    /**
+     * 预计等待秒数
+     */
+    private Long waitSeconds;
+}
@@ -8,5 +8,13 @@ import java.util.List;
 public class ScrollResult {
     private List<?> list;
     private Long minTime;
+    /**
+     * 按分数滚动分页（如热榜）时的游标
+     */
+    private Double minScore;
     private Integer offset;
+    /**
+     * 按时间、id滚动分页（如评论）时，与minTime配合的游标
+     */
+    private Long lastId;
 }
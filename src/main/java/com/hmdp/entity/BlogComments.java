@@ -1,6 +1,7 @@
 package com.hmdp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -9,6 +10,7 @@ import lombok.experimental.Accessors;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -37,6 +39,18 @@ public class BlogComments implements Serializable {
      */
     private Long userId;
 
+    /**
+     * 用户图标
+     */
+    @TableField(exist = false)
+    private String icon;
+
+    /**
+     * 用户姓名
+     */
+    @TableField(exist = false)
+    private String name;
+
     /**
      * 探店id
      */
@@ -77,5 +91,11 @@ public class BlogComments implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 一级评论下最早的几条回复
+     */
+    @TableField(exist = false)
+    private List<BlogComments> replies;
+
 
 }
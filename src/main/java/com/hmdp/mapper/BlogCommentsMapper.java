@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,5 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogCommentsMapper extends BaseMapper<BlogComments> {
 
+    List<BlogComments> queryReplyPreview(@Param("parentIds") Collection<Long> parentIds, @Param("limit") int limit);
 }
@@ -0,0 +1,23 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.BlogViewStats;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author MoFany-J
+ * @since 2023-04-15
+ */
+public interface BlogViewStatsMapper extends BaseMapper<BlogViewStats> {
+
+    /**
+     * 批量写入每日统计，同一博文同一天重复写入时覆盖
+     */
+    int upsertBatch(@Param("stats") Collection<BlogViewStats> stats);
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
 
 /**
  * <p>
@@ -13,4 +16,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 为尚无详情记录的用户插入默认记录，已存在的忽略
+     */
+    int insertIgnore(@Param("userIds") Collection<Long> userIds);
 }
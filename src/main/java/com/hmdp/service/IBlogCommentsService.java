@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,24 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    /**
+     * 发表评论，answerId不为空时为回复
+     */
+    Result saveComment(BlogComments comment);
+
+    /**
+     * 博文的一级评论，按时间倒序滚动分页，每条附带最早的几条回复
+     *
+     * @param lastTime 上一页返回的minTime，首页不传
+     * @param lastId   上一页返回的lastId，首页不传
+     */
+    Result queryComments(Long blogId, Long lastTime, Long lastId);
+
+    /**
+     * 一级评论下的回复，按时间正序滚动分页
+     *
+     * @param lastTime 上一页返回的minTime，首页不传
+     * @param lastId   上一页返回的lastId，首页不传
+     */
+    Result queryReplies(Long parentId, Long lastTime, Long lastId);
 }
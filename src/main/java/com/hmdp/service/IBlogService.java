@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,45 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    /**
+     * 博文详情，同时记录一次浏览
+     *
+     * @param viewer 未登录访客的标识，如客户端地址
+     */
+    Result queryBlogById(Long id, String viewer);
+
+    /**
+     * 热榜，按热度分数滚动分页
+     *
+     * @param max    上一页返回的minScore，首页不传
+     * @param offset 上一页返回的offset，首页为0
+     */
+    Result queryHotBlog(Double max, Integer offset);
+
+    Result queryMyBlog(Integer current);
+
+    /**
+     * 关注流，按发布时间滚动分页
+     *
+     * @param max    上一页返回的minTime，首页不传
+     * @param offset 上一页返回的offset，首页为0
+     */
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 点赞，重复点赞不重复计数
+     */
+    Result likeBlog(Long id);
+
+    /**
+     * 取消点赞，未点赞时不做处理
+     */
+    Result unlikeBlog(Long id);
+
+    /**
+     * 查询最早点赞的5个用户
+     */
+    Result queryBlogLikes(Long id);
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,18 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    /**
+     * 关注或取关，重复操作不重复计数
+     *
+     * @param followUserId 被关注的用户id
+     * @param isFollow     true关注，false取关
+     */
+    Result follow(Long followUserId, Boolean isFollow);
+
+    Result isFollow(Long followUserId);
+
+    /**
+     * 当前用户与目标用户的共同关注
+     */
+    Result followCommons(Long id);
 }
@@ -13,4 +13,21 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 查询秒杀券信息，优先读取预热的缓存
+     */
+    SeckillVoucher querySeckillVoucher(Long voucherId);
+
+    /**
+     * 预热秒杀券：写入redis库存、创建下单用户集合、缓存秒杀券信息
+     */
+    void preheat(SeckillVoucher seckillVoucher);
+
+    /**
+     * 预热即将开始和正在进行中的秒杀券
+     *
+     * @param aheadMinutes 提前多少分钟预热
+     * @return 预热的秒杀券数量
+     */
+    int preheatUpcoming(long aheadMinutes);
 }
@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -26,4 +29,21 @@ public interface IUserService extends IService<User> {
      * 登录
      * */
     Result login(LoginFormDTO loginForm);
+
+    /**
+     * 登出
+     * */
+    Result logout(String token);
+
+    /**
+     * 修改当前用户的昵称、头像，同时更新token对应的登录用户
+     * */
+    Result updateProfile(String token, UserDTO profile);
+
+    /**
+     * 批量查询用户摘要（昵称、头像），优先读取缓存
+     *
+     * @return key为用户id，不存在的用户不包含在内
+     * */
+    Map<Long, UserDTO> queryUserSummaries(Collection<Long> ids);
 }
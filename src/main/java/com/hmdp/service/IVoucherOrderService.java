@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,18 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    Result createVoucherOrder(Long voucherId);
+    /**
+     * 下单结果是否可以稍后重试：秒杀未开始、排队中未放行，重试时可能成功
+     */
+    boolean isRetryable(Result result);
+
+    /**
+     * 订单落库，用户id随订单传入，落库线程中没有登录用户
+     */
+    Result createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量取消超时未支付的订单，并回补库存
+     */
+    void cancelUnpaidOrders(List<Long> orderIds);
 }
@@ -16,5 +16,12 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 修改优惠券状态：1,上架; 2,下架; 3,过期
+     */
+    Result updateStatus(Long id, Integer status);
 }
@@ -1,20 +1,287 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotBlogRanking;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 评论分两级：一级评论parent_id为0，回复一律挂在所属一级评论下，answer_id记录回复的是哪条评论；
+ * 列表按 (blog_id, create_time, id) 游标分页，热门博文的评论首页缓存在Redis中，发表评论后刷新；
+ * 评论数以Redis计数器原子增减，定时批量写回tb_blog
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    /**
+     * 每条一级评论附带的回复条数
+     */
+    private static final int REPLY_PREVIEW_SIZE = 3;
+
+    /**
+     * 单次写回的博文数
+     */
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    /**
+     * 加载Lua脚本
+     */
+    private static final DefaultRedisScript<Long> COMMENT_COUNT_SCRIPT;
+
+    static {
+        COMMENT_COUNT_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_COUNT_SCRIPT.setLocation(new ClassPathResource("script/comment_count.lua"));
+        COMMENT_COUNT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private HotBlogRanking hotBlogRanking;
+
+    /**
+     * 热榜前多少名的博文缓存评论首页
+     */
+    @Value("${hmdp.blog.comment.cache-top:100}")
+    private long cacheTop;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空!");
+        }
+        if (comment.getContent().length() > 255) {
+            return Result.fail("评论内容过长!");
+        }
+        Long blogId = comment.getBlogId();
+        if (blogId == null || blogService.getById(blogId) == null) {
+            return Result.fail("博文不存在!");
+        }
+        // 1.回复统一挂到所属的一级评论下，只保留两级
+        Long answerId = comment.getAnswerId();
+        if (answerId != null && answerId != 0) {
+            BlogComments answered = getById(answerId);
+            if (answered == null || !blogId.equals(answered.getBlogId())) {
+                return Result.fail("回复的评论不存在!");
+            }
+            comment.setParentId(answered.getParentId() == 0 ? answered.getId() : answered.getParentId());
+        } else {
+            comment.setParentId(0L).setAnswerId(0L);
+        }
+        comment.setId(null)
+                .setUserId(UserHolder.getUser().getId())
+                .setLiked(0)
+                .setStatus(false);
+        // 2.保存评论前确保评论数已加载，保存后评论数加一，计入热度
+        loadCount(blogId);
+        save(comment);
+        incrementCount(blogId);
+        hotBlogRanking.onEvent(blogId, HotBlogRanking.COMMENT_WEIGHT);
+        // 3.热门博文刷新评论首页缓存
+        if (isHot(blogId)) {
+            cacheClient.set(CACHE_BLOG_COMMENTS_KEY + blogId, loadFirstPage(blogId),
+                    CACHE_BLOG_COMMENTS_TTL, TimeUnit.MINUTES);
+        }
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryComments(Long blogId, Long lastTime, Long lastId) {
+        List<BlogComments> comments;
+        if (lastTime == null && isHot(blogId)) {
+            comments = cacheClient.queryListWithPassThrough(CACHE_BLOG_COMMENTS_KEY, blogId, BlogComments.class,
+                    this::loadFirstPage, CACHE_BLOG_COMMENTS_TTL, TimeUnit.MINUTES);
+        } else {
+            comments = loadPage(blogId, lastTime, lastId);
+        }
+        fillUsers(comments);
+        return Result.ok(toScrollResult(comments));
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, Long lastTime, Long lastId) {
+        QueryWrapper<BlogComments> wrapper = new QueryWrapper<BlogComments>()
+                .eq("parent_id", parentId)
+                .and(w -> w.isNull("status").or().lt("status", 2));
+        if (lastTime != null) {
+            LocalDateTime time = toTime(lastTime);
+            wrapper.and(w -> w.gt("create_time", time)
+                    .or(x -> x.eq("create_time", time).gt("id", lastId == null ? 0 : lastId)));
+        }
+        List<BlogComments> replies = list(wrapper
+                .orderByAsc("create_time", "id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE));
+        fillUsers(replies);
+        return Result.ok(toScrollResult(replies));
+    }
+
+    /**
+     * 批量写回评论数，每轮取出一批有变化的博文，以Redis中的计数为准覆盖
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.comment.flush-interval:5000}")
+    public void flushCounts() {
+        List<String> ids = stringRedisTemplate.opsForSet().pop(BLOG_COMMENTS_DIRTY_KEY, FLUSH_BATCH_SIZE);
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+        List<String> counts = stringRedisTemplate.opsForValue().multiGet(
+                ids.stream().map(id -> BLOG_COMMENTS_KEY + id).collect(Collectors.toList()));
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            String count = counts == null ? null : counts.get(i);
+            if (count != null) {
+                blogs.add(new Blog().setId(Long.valueOf(ids.get(i))).setComments(Integer.valueOf(count)));
+            }
+        }
+        if (blogs.isEmpty()) {
+            return;
+        }
+        try {
+            blogService.updateBatchById(blogs);
+        } catch (Exception e) {
+            // 写回失败，重新标记，下一轮重试
+            log.error("评论数写回失败: {}", ids, e);
+            stringRedisTemplate.opsForSet().add(BLOG_COMMENTS_DIRTY_KEY, ids.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * 评论数未加载时从数据库加载，在保存评论之前调用：
+     * 计数写入Redis之前保存的评论都包含在条数中，之后保存的评论都由 {@link #incrementCount(Long)} 加一，
+     * 并发加载时只有先写入的生效，其余请求的评论仍会加一，不会丢失也不会重复
+     */
+    private void loadCount(Long blogId) {
+        String key = BLOG_COMMENTS_KEY + blogId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return;
+        }
+        Integer total = query().eq("blog_id", blogId).count();
+        stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(total));
+    }
+
+    private void incrementCount(Long blogId) {
+        Long count = stringRedisTemplate.execute(COMMENT_COUNT_SCRIPT,
+                Arrays.asList(BLOG_COMMENTS_KEY + blogId, BLOG_COMMENTS_DIRTY_KEY), blogId.toString(), "1");
+        if (count == null || count < 0) {
+            // 计数在保存评论后被删除，按数据库重新加载，刚保存的评论已包含在条数中
+            loadCount(blogId);
+            stringRedisTemplate.opsForSet().add(BLOG_COMMENTS_DIRTY_KEY, blogId.toString());
+        }
+    }
+
+    private boolean isHot(Long blogId) {
+        Long rank = hotBlogRanking.rank(blogId);
+        return rank != null && rank < cacheTop;
+    }
+
+    private List<BlogComments> loadFirstPage(Long blogId) {
+        return loadPage(blogId, null, null);
+    }
+
+    /**
+     * 查询一页一级评论，并一次查询带出每条评论最早的几条回复
+     */
+    private List<BlogComments> loadPage(Long blogId, Long lastTime, Long lastId) {
+        QueryWrapper<BlogComments> wrapper = new QueryWrapper<BlogComments>()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .and(w -> w.isNull("status").or().lt("status", 2));
+        if (lastTime != null) {
+            LocalDateTime time = toTime(lastTime);
+            wrapper.and(w -> w.lt("create_time", time)
+                    .or(x -> x.eq("create_time", time).lt("id", lastId == null ? Long.MAX_VALUE : lastId)));
+        }
+        List<BlogComments> comments = list(wrapper
+                .orderByDesc("create_time", "id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE));
+        if (comments.isEmpty()) {
+            return comments;
+        }
+        Map<Long, List<BlogComments>> replies = baseMapper.queryReplyPreview(
+                        comments.stream().map(BlogComments::getId).collect(Collectors.toList()), REPLY_PREVIEW_SIZE)
+                .stream()
+                .collect(Collectors.groupingBy(BlogComments::getParentId));
+        comments.forEach(comment -> comment.setReplies(replies.getOrDefault(comment.getId(), Collections.emptyList())));
+        return comments;
+    }
+
+    /**
+     * 补充评论及其回复的用户昵称、头像，缓存中只保存评论本身
+     */
+    private void fillUsers(List<BlogComments> comments) {
+        List<BlogComments> all = new ArrayList<>(comments);
+        comments.stream().filter(c -> c.getReplies() != null).forEach(c -> all.addAll(c.getReplies()));
+        if (all.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDTO> users = userService.queryUserSummaries(
+                all.stream().map(BlogComments::getUserId).collect(Collectors.toSet()));
+        all.forEach(comment -> {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName()).setIcon(user.getIcon());
+            }
+        });
+    }
+
+    private ScrollResult toScrollResult(List<BlogComments> comments) {
+        ScrollResult r = new ScrollResult();
+        r.setList(comments);
+        if (!comments.isEmpty()) {
+            BlogComments last = comments.get(comments.size() - 1);
+            r.setMinTime(last.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            r.setLastId(last.getId());
+        }
+        return r;
+    }
+
+    private LocalDateTime toTime(Long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
 }
@@ -1,11 +1,37 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogFeed;
+import com.hmdp.utils.BlogViewCounter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.DeltaCounter;
+import com.hmdp.utils.HotBlogRanking;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +40,254 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private HotBlogRanking hotBlogRanking;
+
+    @Resource
+    private BlogFeed blogFeed;
+
+    @Resource
+    private BlogViewCounter blogViewCounter;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 尚未写回数据库的点赞数变化，key为博文id
+     */
+    private final DeltaCounter likedDeltas = new DeltaCounter();
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 保存探店博文
+        save(blog);
+        // 进入热榜，推送给粉丝
+        hotBlogRanking.onPublish(blog.getId());
+        blogFeed.publish(user.getId(), blog.getId(), System.currentTimeMillis());
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result queryBlogById(Long id, String viewer) {
+        // 1.查询博文，缓存空值防止穿透
+        Blog blog = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class, this::getById,
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (blog == null) {
+            return Result.fail("博文不存在!");
+        }
+        // 2.作者信息走用户缓存
+        UserDTO author = userService.queryUserSummaries(Collections.singletonList(blog.getUserId()))
+                .get(blog.getUserId());
+        if (author != null) {
+            blog.setName(author.getNickName()).setIcon(author.getIcon());
+        }
+        // 3.一次pipeline读取实时评论数、当前用户是否点赞，并记录访客；点赞数写回后会清除详情缓存
+        UserDTO user = UserHolder.getUser();
+        String userId = user == null ? null : user.getId().toString();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.get(BLOG_COMMENTS_KEY + id);
+            if (userId != null) {
+                stringConnection.zScore(BLOG_LIKED_KEY + id, userId);
+            }
+            blogViewCounter.record(stringConnection, id, userId != null ? userId : "ip:" + viewer);
+            return null;
+        });
+        String comments = (String) results.get(0);
+        if (comments != null) {
+            blog.setComments(Integer.valueOf(comments));
+        }
+        blog.setIsLike(userId != null && results.get(1) != null);
+        return Result.ok(blog);
+    }
+
+    @Override
+    public Result queryHotBlog(Double max, Integer offset) {
+        // 从热榜按分数滚动读取
+        Set<ZSetOperations.TypedTuple<String>> tuples = hotBlogRanking.scroll(max, offset, SystemConstants.MAX_PAGE_SIZE);
+        ScrollResult result = scrollPage(tuples, max, offset);
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        Long userId = UserHolder.getUser().getId();
+        // 合并收件箱与关注的大V发件箱
+        List<ZSetOperations.TypedTuple<String>> tuples =
+                blogFeed.scroll(userId, max, offset, SystemConstants.MAX_PAGE_SIZE);
+        ScrollResult result = scrollPage(tuples, max == null ? null : max.doubleValue(), offset);
+        // 关注流的游标是时间戳
+        if (result.getMinScore() != null) {
+            result.setMinTime(result.getMinScore().longValue());
+            result.setMinScore(null);
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 按分数倒序滚动分页：查询本页博文，并计算下一页的游标（本页最小分数，以及与最小分数相同的条数）
+     */
+    private ScrollResult scrollPage(Collection<ZSetOperations.TypedTuple<String>> tuples, Double max, int offset) {
+        ScrollResult result = new ScrollResult();
+        if (tuples.isEmpty()) {
+            result.setList(Collections.emptyList());
+            return result;
+        }
+        // 解析博文id、本页最小分数，以及与最小分数相同的条数
+        List<Long> ids = new ArrayList<>(tuples.size());
+        double minScore = 0;
+        int os = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            double score = tuple.getScore();
+            if (os > 0 && score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        // 整页分数都与上一页游标相同，偏移量需要累加
+        if (max != null && minScore == max) {
+            os += offset;
+        }
+        // 按原顺序查询博文
+        Map<Long, Blog> blogMap = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+        List<Blog> blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        // 批量查询用户，标记当前用户是否点赞
+        fillBlogs(blogs);
+        result.setList(blogs);
+        result.setMinScore(minScore);
+        result.setOffset(os);
+        return result;
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // 根据用户查询
+        Page<Blog> page = query()
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        fillBlogs(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        String key = BLOG_LIKED_KEY + id;
+        String userId = UserHolder.getUser().getId().toString();
+        // 已点赞则直接返回，保留首次点赞时间
+        if (stringRedisTemplate.opsForZSet().score(key, userId) != null) {
+            return Result.ok();
+        }
+        // zadd key score member，score为点赞时间；并发重复点赞时只有新增成员的请求计数
+        Boolean added = stringRedisTemplate.opsForZSet().add(key, userId, System.currentTimeMillis());
+        if (Boolean.TRUE.equals(added)) {
+            likedDeltas.add(id, 1);
+            hotBlogRanking.onEvent(id, HotBlogRanking.LIKE_WEIGHT);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result unlikeBlog(Long id) {
+        String userId = UserHolder.getUser().getId().toString();
+        Long removed = stringRedisTemplate.opsForZSet().remove(BLOG_LIKED_KEY + id, userId);
+        if (removed != null && removed > 0) {
+            likedDeltas.add(id, -1);
+            hotBlogRanking.onEvent(id, -HotBlogRanking.LIKE_WEIGHT);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        // 查询最早点赞的5个用户 zrange key 0 4
+        Set<String> top5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+        if (top5 == null || top5.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 按点赞顺序返回
+        Map<Long, UserDTO> users = userService.queryUserSummaries(ids);
+        List<UserDTO> userDTOS = ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return Result.ok(userDTOS);
+    }
+
+    /**
+     * 批量写回点赞数，相同变化量的博文合并为一条UPDATE，写回后清除博文详情缓存
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-interval:5000}")
+    @PreDestroy
+    public void flushLikes() {
+        if (likedDeltas.isEmpty()) {
+            return;
+        }
+        Map<Integer, List<Long>> byDelta = likedDeltas.drain();
+        byDelta.forEach((delta, ids) -> {
+            try {
+                update().setSql(DeltaCounter.setSql("liked", delta)).in("id", ids).update();
+                stringRedisTemplate.delete(ids.stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList()));
+            } catch (Exception e) {
+                // 写回失败，放回下一轮重试
+                log.error("点赞数写回失败: {}", ids, e);
+                likedDeltas.restore(ids, delta);
+            }
+        });
+    }
+
+    /**
+     * 补充博文作者的昵称、头像，以及当前用户是否点赞
+     */
+    private void fillBlogs(List<Blog> blogs) {
+        Map<Long, UserDTO> users = userService.queryUserSummaries(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toList()));
+        blogs.forEach(blog -> {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+        markLiked(blogs);
+    }
+
+    /**
+     * 批量标记当前用户是否点赞，一次pipeline查询
+     */
+    private void markLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            blogs.forEach(blog -> stringConnection.zScore(BLOG_LIKED_KEY + blog.getId(), userId));
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
 }
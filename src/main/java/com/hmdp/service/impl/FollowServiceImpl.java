@@ -1,20 +1,181 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
+import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.DeltaCounter;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_PLACEHOLDER;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 关注关系以 follows:{userId} 集合保存在Redis中，数据库tb_follow为其镜像；
+ * 粉丝数、关注数在内存中聚合后批量写回tb_user_info，热门用户被大量关注时不会争抢同一行
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private UserInfoMapper userInfoMapper;
+
+    /**
+     * 尚未写回数据库的粉丝数、关注数变化，key为用户id
+     */
+    private final DeltaCounter fansDeltas = new DeltaCounter();
+    private final DeltaCounter followeeDeltas = new DeltaCounter();
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己!");
+        }
+        String key = loadFollows(userId);
+        String member = followUserId.toString();
+        if (Boolean.TRUE.equals(isFollow)) {
+            if (!userService.queryUserSummaries(Collections.singletonList(followUserId)).containsKey(followUserId)) {
+                return Result.fail("用户不存在!");
+            }
+            // sadd返回1才是新关注，并发重复关注只有一个请求写库、计数
+            Long added = stringRedisTemplate.opsForSet().add(key, member);
+            if (added == null || added == 0) {
+                return Result.ok();
+            }
+            try {
+                save(new Follow().setUserId(userId).setFollowUserId(followUserId));
+            } catch (DuplicateKeyException e) {
+                // 库中已有记录，说明缓存刚被重建，不重复计数
+                return Result.ok();
+            } catch (RuntimeException e) {
+                stringRedisTemplate.opsForSet().remove(key, member);
+                throw e;
+            }
+            followeeDeltas.add(userId, 1);
+            fansDeltas.add(followUserId, 1);
+        } else {
+            Long removed = stringRedisTemplate.opsForSet().remove(key, member);
+            if (removed == null || removed == 0) {
+                return Result.ok();
+            }
+            boolean deleted;
+            try {
+                deleted = remove(new QueryWrapper<Follow>()
+                        .eq("user_id", userId).eq("follow_user_id", followUserId));
+            } catch (RuntimeException e) {
+                stringRedisTemplate.opsForSet().add(key, member);
+                throw e;
+            }
+            if (deleted) {
+                followeeDeltas.add(userId, -1);
+                fansDeltas.add(followUserId, -1);
+            }
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        Boolean member = stringRedisTemplate.opsForSet().isMember(loadFollows(userId), followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(member));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 求两个关注集合的交集 sinter follows:{userId} follows:{id}
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(loadFollows(userId), loadFollows(id));
+        if (intersect == null || intersect.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = intersect.stream()
+                .filter(followId -> !FOLLOWS_PLACEHOLDER.equals(followId))
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        Map<Long, UserDTO> users = userService.queryUserSummaries(ids);
+        return Result.ok(ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    /**
+     * 批量写回粉丝数、关注数，相同变化量的用户合并为一条UPDATE
+     */
+    @Scheduled(fixedDelayString = "${hmdp.follow.count-flush-interval:5000}")
+    @PreDestroy
+    public void flushCounts() {
+        flush("fans", fansDeltas);
+        flush("followee", followeeDeltas);
+    }
+
+    private void flush(String column, DeltaCounter deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        deltas.drain().forEach((delta, ids) -> {
+            try {
+                // 用户详情记录不一定存在，先补齐再更新
+                userInfoMapper.insertIgnore(ids);
+                userInfoMapper.update(null, new UpdateWrapper<UserInfo>()
+                        .setSql(DeltaCounter.setSql(column, delta))
+                        .in("user_id", ids));
+            } catch (Exception e) {
+                // 写回失败，放回下一轮重试
+                log.error("{}写回失败: {}", column, ids, e);
+                deltas.restore(ids, delta);
+            }
+        });
+    }
+
+    /**
+     * 确保用户的关注集合已在Redis中，不存在时从数据库重建；
+     * redis不保存空集合，用占位成员创建，没有关注任何人的用户不会每次都查询数据库
+     *
+     * @return 关注集合的key
+     */
+    private String loadFollows(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        List<String> followIds = new ArrayList<>();
+        followIds.add(FOLLOWS_PLACEHOLDER);
+        list(new QueryWrapper<Follow>().select("follow_user_id").eq("user_id", userId))
+                .forEach(follow -> followIds.add(follow.getFollowUserId().toString()));
+        stringRedisTemplate.opsForSet().add(key, followIds.toArray(new String[0]));
+        return key;
+    }
 }
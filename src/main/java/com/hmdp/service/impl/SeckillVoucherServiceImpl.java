@@ -1,11 +1,27 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +30,72 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Override
+    public SeckillVoucher querySeckillVoucher(Long voucherId) {
+        // 逻辑过期缓存，过期后异步重建
+        SeckillVoucher seckillVoucher = cacheClient.queryWithLogicalExpire(CACHE_SECKILL_VOUCHER_KEY, voucherId,
+                SeckillVoucher.class, this::getById, CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+        if (seckillVoucher != null) {
+            return seckillVoucher;
+        }
+        // 未预热，查询数据库后写入缓存
+        seckillVoucher = getById(voucherId);
+        if (seckillVoucher != null) {
+            cacheClient.setWithLogicalExpire(CACHE_SECKILL_VOUCHER_KEY + voucherId, seckillVoucher,
+                    CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        return seckillVoucher;
+    }
+
+    @Override
+    public void preheat(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        String stockKey = SECKILL_STOCK_KEY + voucherId;
+        String orderKey = SECKILL_ORDER_KEY + voucherId;
+        // 1.写入库存，已存在的库存计数是实时值，不能覆盖
+        Boolean created = stringRedisTemplate.opsForValue()
+                .setIfAbsent(stockKey, seckillVoucher.getStock().toString());
+        if (Boolean.TRUE.equals(created)) {
+            // 2.创建下单用户集合，redis不保存空集合，用占位成员创建；库存丢失后重建时补回已下单用户
+            List<String> buyers = new ArrayList<>();
+            buyers.add(SECKILL_ORDER_PLACEHOLDER);
+            voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                            .select("user_id").eq("voucher_id", voucherId))
+                    .forEach(userId -> buyers.add(userId.toString()));
+            stringRedisTemplate.opsForSet().add(orderKey, buyers.toArray(new String[0]));
+            // 活动结束一天后自动清理
+            Date expireAt = Date.from(seckillVoucher.getEndTime().plusDays(1)
+                    .atZone(ZoneId.systemDefault()).toInstant());
+            stringRedisTemplate.expireAt(stockKey, expireAt);
+            stringRedisTemplate.expireAt(orderKey, expireAt);
+            log.debug("秒杀券库存预热: {}, 库存: {}", voucherId, seckillVoucher.getStock());
+        }
+        // 3.缓存秒杀券信息
+        cacheClient.setWithLogicalExpire(CACHE_SECKILL_VOUCHER_KEY + voucherId, seckillVoucher,
+                CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public int preheatUpcoming(long aheadMinutes) {
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = query()
+                .le("begin_time", now.plusMinutes(aheadMinutes))
+                .gt("end_time", now)
+                .list();
+        vouchers.forEach(this::preheat);
+        return vouchers.size();
+    }
 }
@@ -1,9 +1,9 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -12,15 +12,23 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionCache;
+import com.hmdp.utils.TransactionUtils;
+import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -40,6 +48,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SessionCache sessionCache;
+
     /**
      * 发送验证码
      *
@@ -93,26 +104,20 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             // 6.不存在，创建新用户
             user = createUserWithPhone(phone);
         }
-        // 7.1 生成一个token
-        String token = UUID.randomUUID().toString(true);
-        // 7.2 将User对象转为Hash存储
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO,
-                new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
-        );
-        // 7.3 存储
-        String tokenKey = LOGIN_USER_KEY + token;
-        // 保存用户信息到 redis
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        // 7.4 设置token过期时间，30分钟
-        stringRedisTemplate.expire(tokenKey, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 7.生成token，保存登录状态
+        String token = sessionCache.create(BeanUtil.copyProperties(user, UserDTO.class));
         // 8.返回token
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isNotBlank(token)) {
+            sessionCache.invalidate(token);
+        }
+        return Result.ok();
+    }
+
     private User createUserWithPhone(String phone) {
         // 创建用户
         User user = new User();
@@ -122,4 +127,74 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         save(user);
         return user;
     }
+
+    @Override
+    @Transactional
+    public Result updateProfile(String token, UserDTO profile) {
+        Long userId = UserHolder.getUser().getId();
+        if (StrUtil.isBlank(profile.getNickName()) && profile.getIcon() == null) {
+            return Result.fail("没有要修改的内容!");
+        }
+        // 1.更新数据库
+        User user = new User();
+        user.setId(userId);
+        user.setNickName(StrUtil.isBlank(profile.getNickName()) ? null : profile.getNickName());
+        user.setIcon(profile.getIcon());
+        updateById(user);
+        // 2.事务提交后删除用户摘要缓存，更新当前登录的用户，其他设备的登录在下次登录时生效
+        TransactionUtils.afterCommit(() -> {
+            stringRedisTemplate.delete(CACHE_USER_KEY + userId);
+            if (StrUtil.isNotBlank(token)) {
+                sessionCache.refresh(token, BeanUtil.copyProperties(user, UserDTO.class));
+            }
+        });
+        return Result.ok();
+    }
+
+    /**
+     * 一次MGET读取缓存，未命中的用户一次listByIds查询后pipeline写回
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserSummaries(Collection<Long> ids) {
+        List<Long> userIds = ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Long, UserDTO> summaries = new HashMap<>(userIds.size());
+        List<String> keys = userIds.stream().map(id -> CACHE_USER_KEY + id).collect(Collectors.toList());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> misses = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            String json = values == null ? null : values.get(i);
+            if (json == null) {
+                misses.add(userIds.get(i));
+            } else if (StrUtil.isNotBlank(json)) {
+                // 空字符串代表用户不存在
+                summaries.put(userIds.get(i), JSONUtil.toBean(json, UserDTO.class));
+            }
+        }
+        if (misses.isEmpty()) {
+            return summaries;
+        }
+        // 查询未命中的用户
+        Map<Long, UserDTO> loaded = listByIds(misses).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
+        summaries.putAll(loaded);
+        // 写回缓存，不存在的用户缓存空值防止穿透
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long id : misses) {
+                UserDTO summary = loaded.get(id);
+                if (summary == null) {
+                    stringConnection.set(CACHE_USER_KEY + id, "",
+                            Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.UPSERT);
+                } else {
+                    stringConnection.set(CACHE_USER_KEY + id, JSONUtil.toJsonStr(summary),
+                            Expiration.from(CACHE_USER_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.UPSERT);
+                }
+            }
+            return null;
+        });
+        return summaries;
+    }
 }
@@ -1,5 +1,9 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.OrderStatusDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -7,16 +11,43 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderStatusCache;
+import com.hmdp.utils.RedisDelayQueue;
 import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.TransactionUtils;
 import com.hmdp.utils.UserHolder;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -26,6 +57,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -44,57 +76,380 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    /**
+     * 代理对象，落库线程中无法通过AopContext获取
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService self;
+
+    /**
+     * 异步下单结果
+     */
+    @Resource
+    private OrderStatusCache orderStatusCache;
+
+    /**
+     * 秒杀排队室
+     */
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    /**
+     * 超时未支付订单取消队列
+     */
+    @Resource
+    private RedisDelayQueue unpaidOrderQueue;
+
+    /**
+     * 未支付订单的保留时间，分钟
+     */
+    @Value("${hmdp.order.unpaid-timeout:15}")
+    private long unpaidTimeout;
+
+    /**
+     * 稍后重试可能成功的下单失败
+     */
+    private static final String NOT_STARTED = "秒杀尚未开始!";
+    private static final String QUEUEING = "排队中，请稍后再试!";
+
+    /**
+     * redis库存增减脚本
+     */
+    private static final DefaultRedisScript<Long> STOCK_ADJUST_SCRIPT;
+
+    static {
+        STOCK_ADJUST_SCRIPT = new DefaultRedisScript<>();
+        STOCK_ADJUST_SCRIPT.setLocation(new ClassPathResource("script/stock_adjust.lua"));
+        STOCK_ADJUST_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 秒杀资格判断脚本与撤销脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_UNDO_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("script/seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_UNDO_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_UNDO_SCRIPT.setLocation(new ClassPathResource("script/seckill_undo.lua"));
+        SECKILL_UNDO_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 订单落库线程
+     */
+    private final ExecutorService orderPersister = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "seckill-order-persister");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 消费者名称，多节点时各不相同；重启后名称不变，上次未确认的消息由自己的pending-list恢复。
+     * 未配置时使用主机名，同一主机部署多个实例时需分别配置
+     */
+    @Value("${hmdp.seckill.consumer.name:}")
+    private String consumerName;
+
+    /**
+     * 其他消费者的消息超过该时间未确认时认领过来处理，毫秒
+     */
+    @Value("${hmdp.seckill.consumer.claim-idle:60000}")
+    private long claimIdle;
+
+    /**
+     * 一条消息最多投递的次数，仍处理失败时转入死信队列
+     */
+    @Value("${hmdp.seckill.consumer.max-deliveries:10}")
+    private long maxDeliveries;
+
+    private volatile boolean running = true;
+
+    private long lastClaimTime;
+
+    @PostConstruct
+    public void init() {
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = NetUtil.getLocalHostName();
+        }
+        // 创建消费者组，已存在时忽略
+        try {
+            stringRedisTemplate.opsForStream().createGroup(SECKILL_ORDER_STREAM, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        } catch (Exception e) {
+            log.debug("消费者组已存在: {}", SECKILL_ORDER_GROUP);
+        }
+        orderPersister.submit(this::persistOrders);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        orderPersister.shutdownNow();
+    }
+
+    /**
+     * 从消息队列读取订单并落库，启动时先认领其他消费者遗留的消息，再处理上次未确认的消息
+     */
+    private void persistOrders() {
+        claimIdlePending();
+        handlePendingList();
+        while (running) {
+            try {
+                // 定期认领已下线节点未确认的消息
+                if (System.currentTimeMillis() - lastClaimTime >= claimIdle && claimIdlePending()) {
+                    handlePendingList();
+                }
+                // XREADGROUP GROUP g1 consumer COUNT 10 BLOCK 2000 STREAMS stream.orders >
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(10).block(Duration.ofSeconds(2)),
+                        StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                if (records == null || records.isEmpty()) {
+                    continue;
+                }
+                handleRecords(records);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("处理订单消息异常", e);
+                pause(1000);
+                handlePendingList();
+            }
+        }
+    }
+
+    /**
+     * 处理已读取但未确认的消息，连续失败时逐渐延长重试间隔
+     */
+    private void handlePendingList() {
+        int failures = 0;
+        while (running) {
+            try {
+                // XREADGROUP GROUP g1 consumer COUNT 10 STREAMS stream.orders 0
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(10),
+                        StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.from("0")));
+                if (records == null || records.isEmpty()) {
+                    return;
+                }
+                handleRecords(records);
+                failures = 0;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("处理pending-list订单消息异常", e);
+                pause(Math.min(1000L << Math.min(failures++, 6), 60_000L));
+            }
+        }
+    }
+
+    /**
+     * 认领其他消费者超时未确认的消息，节点下线或改名后消息不会一直留在它的pending-list中
+     *
+     * @return 是否认领到消息
+     */
+    private boolean claimIdlePending() {
+        lastClaimTime = System.currentTimeMillis();
+        try {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP);
+            if (summary == null || summary.getTotalPendingMessages() == 0) {
+                return false;
+            }
+            boolean claimed = false;
+            Duration minIdle = Duration.ofMillis(claimIdle);
+            for (String consumer : summary.getPendingMessagesPerConsumer().keySet()) {
+                if (consumer.equals(consumerName)) {
+                    continue;
+                }
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM,
+                        Consumer.from(SECKILL_ORDER_GROUP, consumer), Range.unbounded(), 100L);
+                RecordId[] ids = pending.stream()
+                        .filter(message -> message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                        .map(PendingMessage::getId)
+                        .toArray(RecordId[]::new);
+                if (ids.length == 0) {
+                    continue;
+                }
+                // XCLAIM 再次按空闲时间判断，其他节点同时认领时只有一个成功
+                List<?> records = stringRedisTemplate.execute((RedisCallback<List<?>>) connection ->
+                        ((StringRedisConnection) connection).xClaim(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, consumerName, minIdle, ids));
+                if (records != null && !records.isEmpty()) {
+                    log.info("认领消费者{}未确认的订单消息{}条", consumer, records.size());
+                    claimed = true;
+                }
+            }
+            return claimed;
+        } catch (Exception e) {
+            log.error("认领未确认的订单消息失败", e);
+            return false;
+        }
+    }
+
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                handleRecord(record);
+            } catch (RuntimeException e) {
+                // 多次投递仍失败的消息转入死信队列，不再阻塞后面的消息
+                if (!deadLetter(record, e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void handleRecord(MapRecord<String, Object, Object> record) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+        Result result = self.createVoucherOrder(voucherOrder);
+        if (!Boolean.TRUE.equals(result.getSuccess())) {
+            onOrderFailed(voucherOrder);
+        }
+        // 确认并删除消息 XACK XDEL
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, record.getId());
+        stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, record.getId());
+    }
+
+    /**
+     * 下单失败，撤销redis中的扣减，以数据库为准
+     */
+    private void onOrderFailed(VoucherOrder voucherOrder) {
+        Long orderId = voucherOrder.getId();
+        Long voucherId = voucherOrder.getVoucherId();
+        // 1.订单已存在：上次处理已提交，确认消息前宕机导致重复投递，按下单成功处理
+        VoucherOrder existing = getById(orderId);
+        if (existing != null) {
+            orderStatusCache.complete(orderId, voucherOrder.getUserId(), OrderStatusDTO.SUCCESS);
+            // 提交后的回调可能未执行，按下单时间补加超时取消任务
+            long elapsed = existing.getCreateTime() == null ? 0
+                    : Duration.between(existing.getCreateTime(), LocalDateTime.now()).toMillis();
+            unpaidOrderQueue.add(String.valueOf(orderId),
+                    Math.max(TimeUnit.MINUTES.toMillis(unpaidTimeout) - elapsed, 0), TimeUnit.MILLISECONDS);
+            return;
+        }
+        // 2.该用户已有其他订单：redis中的下单记录与数据库一致，只归还这次扣减的库存
+        if (query().eq("user_id", voucherOrder.getUserId()).eq("voucher_id", voucherId).count() > 0) {
+            stringRedisTemplate.execute(STOCK_ADJUST_SCRIPT,
+                    Collections.singletonList(SECKILL_STOCK_KEY + voucherId), "1");
+        } else {
+            // 3.数据库库存不足：归还库存并移除下单用户
+            stringRedisTemplate.execute(SECKILL_UNDO_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId),
+                    voucherOrder.getUserId().toString());
+        }
+        orderStatusCache.complete(orderId, voucherOrder.getUserId(), OrderStatusDTO.FAILED);
+    }
+
+    /**
+     * 投递次数达到上限时把消息转入死信队列并确认，修复后可从死信队列重新投递
+     *
+     * @return 是否已转入死信队列
+     */
+    private boolean deadLetter(MapRecord<String, Object, Object> record, Exception cause) {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM,
+                    Consumer.from(SECKILL_ORDER_GROUP, consumerName), Range.closed(record.getId().getValue(), record.getId().getValue()), 1L);
+            if (pending.isEmpty() || pending.get(0).getTotalDeliveryCount() < maxDeliveries) {
+                return false;
+            }
+            Map<Object, Object> value = new HashMap<>(record.getValue());
+            value.put("recordId", record.getId().getValue());
+            value.put("error", String.valueOf(cause.getMessage()));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DEAD_STREAM, value);
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, record.getId());
+            stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, record.getId());
+            log.error("订单消息投递{}次仍处理失败，转入死信队列: {}", pending.get(0).getTotalDeliveryCount(), record.getValue(), cause);
+            return true;
+        } catch (Exception e) {
+            log.error("订单消息转入死信队列失败: {}", record.getId(), e);
+            return false;
+        }
+    }
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 查询优惠卷
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        // 查询优惠卷，秒杀券信息已预热到缓存
+        SeckillVoucher voucher = seckillVoucherService.querySeckillVoucher(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在!");
+        }
         // 判断秒杀是否开始，开始时间在当前时间之后
         if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            return Result.fail("秒杀尚未开始!");
+            return Result.fail(NOT_STARTED);
         }
         // 判断秒杀是否结束，开始时间在当前时间之前
         if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
             return Result.fail("秒杀已经结束!");
         }
-        // 判断库存是否充足，库存小于1
-        if (voucher.getStock() < 1) {
+        // 未轮到的排队号码不能下单
+        Long userId = UserHolder.getUser().getId();
+        if (!seckillWaitingRoom.isAdmitted(voucher, userId)) {
+            return Result.fail(QUEUEING);
+        }
+        // 生成订单id
+        long orderId = redisIdWorker.nextId("order");
+        // 在redis中判断库存与一人一单，有资格则发送订单消息，没有资格的请求不访问数据库
+        Long code = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId,
+                        SECKILL_ORDER_STREAM, ORDER_STATUS_KEY + orderId),
+                userId.toString(), voucherId.toString(), String.valueOf(orderId),
+                String.valueOf(TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL)));
+        if (code != null && code == 1) {
             return Result.fail("库存不足!");
         }
-
-        // 获取用户id
-        Long userId = UserHolder.getUser().getId();
-        // 创建锁对象
-        SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        // 获取锁
-        boolean isLock = lock.tryLock(1200);
-        // 判断是否获取锁成功
-        if (!isLock) {
-            // 获取锁失败，返回错误或重试
-            return Result.fail("不允许重复下单");
+        if (code != null && code == 2) {
+            return Result.fail("当前用户已下过一次单!");
         }
-        try {
-            // 防止事务失效，获取当前代理类接口的代理对象
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            // 必须确保先提交事务最后释放锁，所以才锁定用户的id字符串常量池返回的值
-            return proxy.createVoucherOrder(voucherId);
-        } finally {
-            // 释放锁
-            lock.unlock();
+        if (code != null && code == 0) {
+            // 订单异步落库，客户端通过 /voucher-order/status/{orderId} 查询结果
+            return Result.ok(orderId);
+        }
+        // 库存未预热，判断数据库库存是否充足后同步下单
+        if (seckillVoucherService.getById(voucherId).getStock() < 1) {
+            return Result.fail("库存不足!");
         }
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        return self.createVoucherOrder(voucherOrder);
+    }
+
+    @Override
+    public boolean isRetryable(Result result) {
+        return !Boolean.TRUE.equals(result.getSuccess())
+                && (NOT_STARTED.equals(result.getErrorMsg()) || QUEUEING.equals(result.getErrorMsg()));
     }
 
     /**
-     * 一人一单，我们要确保先提交事务最后释放锁
+     * 一人一单，先插入订单再扣减库存：
+     * 重复下单由唯一索引冲突直接拒绝，不需要先查询；热点库存行的行锁在事务最后才获取，持有时间最短
      */
     @Override
     @Transactional
-    public Result createVoucherOrder(Long voucherId) {
-        // 获取用户id
-        Long userId = UserHolder.getUser().getId();
-        // 查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        // 判断下单用户是否已经存在
-        if (count > 0) {
+    public Result createVoucherOrder(VoucherOrder voucherOrder) {
+        Long orderId = voucherOrder.getId();
+        Long voucherId = voucherOrder.getVoucherId();
+        try {
+            // 将订单写入数据库
+            save(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            // 唯一索引冲突，说明该用户已经下过单
             return Result.fail("当前用户已下过一次单!");
         }
         /**
@@ -107,23 +462,46 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 // where id = ? and stock > 0
                 .eq("voucher_id", voucherId).gt("stock", 0)
                 .update();
-        // 扣减库存失败
+        // 扣减库存失败，回滚已插入的订单
         if (!success) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return Result.fail("库存不足!");
         }
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 生成订单id
-        long orderId = redisIdWorker.nextId("order");
-        // 给订单设置订单id
-        voucherOrder.setId(orderId);
-        // 给订单设置用户id
-        voucherOrder.setUserId(userId);
-        // 给订单设置优惠卷id
-        voucherOrder.setVoucherId(voucherId);
-        // 将订单写入数据库
-        save(voucherOrder);
+        // 事务提交后更新下单结果，并加入超时取消队列，redis库存已在下单资格判断时扣减
+        TransactionUtils.afterCommit(() -> {
+            orderStatusCache.complete(orderId, voucherOrder.getUserId(), OrderStatusDTO.SUCCESS);
+            unpaidOrderQueue.add(String.valueOf(orderId), unpaidTimeout, TimeUnit.MINUTES);
+        });
         // 返回订单id
         return Result.ok(orderId);
     }
+
+    /**
+     * 批量取消超时未支付的订单，并回补库存
+     */
+    @Override
+    @Transactional
+    public void cancelUnpaidOrders(List<Long> orderIds) {
+        // 锁定仍处于未支付状态的订单，已支付的订单不受影响
+        List<VoucherOrder> orders = query()
+                .in("id", orderIds).eq("status", 1)
+                .last("for update").list();
+        if (orders.isEmpty()) {
+            return;
+        }
+        List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        // 修改订单状态为已取消
+        update().set("status", 4).in("id", ids).update();
+        // 按优惠券汇总后回补数据库库存
+        Map<Long, Long> returned = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        returned.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update());
+        // 事务提交后回补redis库存，下单用户仍保留在集合中，与唯一索引一致
+        TransactionUtils.afterCommit(() -> returned.forEach((voucherId, count) -> stringRedisTemplate.execute(STOCK_ADJUST_SCRIPT,
+                Collections.singletonList(SECKILL_STOCK_KEY + voucherId), count.toString())));
+        log.info("取消超时未支付订单{}个", ids.size());
+    }
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,11 +8,18 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.TransactionUtils;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -27,14 +35,61 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 查询店铺的优惠券列表
+     * 优惠券基本信息按店铺缓存，变化频繁的库存从redis库存计数中批量读取后覆盖
+     */
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 查询优惠券信息，缓存未命中时查询数据库
+        List<Voucher> vouchers = cacheClient.queryListWithPassThrough(CACHE_VOUCHER_KEY, shopId, Voucher.class,
+                getBaseMapper()::queryVoucherOfShop, CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        // 用实时库存覆盖缓存中的库存快照
+        overlayStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 一次MGET读取所有秒杀券的redis库存，库存未预热的保留缓存中的值
+     */
+    private void overlayStock(List<Voucher> vouchers) {
+        List<Voucher> seckillVouchers = vouchers.stream()
+                .filter(voucher -> voucher.getStock() != null)
+                .collect(Collectors.toList());
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        List<String> keys = seckillVouchers.stream()
+                .map(voucher -> SECKILL_STOCK_KEY + voucher.getId())
+                .collect(Collectors.toList());
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks == null) {
+            return;
+        }
+        for (int i = 0; i < seckillVouchers.size(); i++) {
+            String stock = stocks.get(i);
+            if (StrUtil.isNotBlank(stock)) {
+                seckillVouchers.get(i).setStock(Math.max(0, Integer.parseInt(stock)));
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 删除店铺优惠券缓存
+        evictShopVouchers(voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -47,5 +102,37 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 删除店铺优惠券缓存
+        evictShopVouchers(voucher.getShopId());
+        // 事务提交后预热库存与秒杀券缓存
+        TransactionUtils.afterCommit(() -> seckillVoucherService.preheat(seckillVoucher));
+    }
+
+    @Override
+    @Transactional
+    public Result updateStatus(Long id, Integer status) {
+        // 状态只能是 1,上架; 2,下架; 3,过期
+        if (status == null || status < 1 || status > 3) {
+            return Result.fail("优惠券状态不正确!");
+        }
+        Voucher voucher = getById(id);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在!");
+        }
+        // 1.更新数据库
+        update().set("status", status).eq("id", id).update();
+        // 2.删除缓存
+        evictShopVouchers(voucher.getShopId());
+        return Result.ok();
+    }
+
+    /**
+     * 事务提交后删除店铺优惠券缓存
+     */
+    private void evictShopVouchers(Long shopId) {
+        if (shopId == null) {
+            return;
+        }
+        TransactionUtils.afterCommit(() -> stringRedisTemplate.delete(CACHE_VOUCHER_KEY + shopId));
     }
 }
@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/10
+ * @description AdaptiveConcurrencyLimiter 秒杀下单并发限制器，基于延迟梯度自适应调整并发上限
+ * 长期延迟为无排队时的基准，短期延迟升高说明下游（数据库）开始排队，按 长期延迟/短期延迟 的梯度收缩上限；
+ * 延迟正常时上限每次增加约 sqrt(limit)，异常请求按乘性减少处理
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.seckill.concurrency.initial-limit:20}")
+    private int initialLimit;
+    @Value("${hmdp.seckill.concurrency.min-limit:4}")
+    private int minLimit;
+    @Value("${hmdp.seckill.concurrency.max-limit:200}")
+    private int maxLimit;
+
+    /**
+     * 延迟容忍倍数，短期延迟不超过 长期延迟*tolerance 时不收缩
+     */
+    @Value("${hmdp.seckill.concurrency.tolerance:2.0}")
+    private double tolerance;
+
+    /**
+     * 上限平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * 异常时的乘性减少系数
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private double estimatedLimit;
+    private double longRtt;
+    private double shortRtt;
+    private Counter rejectedCounter;
+    private Counter droppedCounter;
+
+    @PostConstruct
+    public void init() {
+        estimatedLimit = initialLimit;
+        limit = initialLimit;
+        rejectedCounter = meterRegistry.counter("seckill.concurrency.rejected");
+        droppedCounter = meterRegistry.counter("seckill.concurrency.dropped");
+        meterRegistry.gauge("seckill.concurrency.limit", this, l -> l.limit);
+        meterRegistry.gauge("seckill.concurrency.inflight", inFlight);
+    }
+
+    /**
+     * 尝试进入，成功后必须调用 {@link #release(long, boolean)}
+     *
+     * @return 进入时间（纳秒），-1代表超过并发上限
+     */
+    public long tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejectedCounter.increment();
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * 退出并根据本次延迟调整上限
+     *
+     * @param startNanos 进入时间
+     * @param success    是否正常完成，异常视为下游过载
+     */
+    public void release(long startNanos, boolean success) {
+        int current = inFlight.getAndDecrement();
+        long rtt = System.nanoTime() - startNanos;
+        update(rtt, current, success);
+    }
+
+    private synchronized void update(long rtt, int inFlightAtRelease, boolean success) {
+        if (!success) {
+            droppedCounter.increment();
+            estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+            limit = (int) estimatedLimit;
+            return;
+        }
+        // 短期延迟快速跟随，长期延迟缓慢跟随作为基准
+        shortRtt = shortRtt == 0 ? rtt : shortRtt * 0.9 + rtt * 0.1;
+        longRtt = longRtt == 0 ? rtt : longRtt * 0.99 + rtt * 0.01;
+        // 短期延迟远低于基准时，基准向下修正
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+        // 并发不到上限一半时延迟不能说明问题，不调整
+        if (inFlightAtRelease * 2 < estimatedLimit) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/14
+ * @description BlogFeed 关注流
+ * 推模式：发布博文时把博文id按批次pipeline写入每个粉丝的收件箱 feed:{userId}；
+ * 拉模式：粉丝数超过阈值的作者只写自己的发件箱 feed:out:{authorId}，粉丝读取时再拉取；
+ * 读取时合并收件箱与所关注大V的发件箱，按时间戳+偏移量滚动分页
+ */
+@Slf4j
+@Component
+public class BlogFeed {
+
+    /**
+     * 收件箱、发件箱保留条数
+     */
+    private static final int BOX_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    /**
+     * 粉丝数超过该值的作者改为拉模式
+     */
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+
+    /**
+     * 推送时每批处理的粉丝数
+     */
+    @Value("${hmdp.feed.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 推送线程，发布博文不等待推送完成
+     */
+    private final ExecutorService pusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "feed-pusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void destroy() {
+        pusher.shutdown();
+    }
+
+    /**
+     * 发布博文
+     *
+     * @param authorId  作者id
+     * @param blogId    博文id
+     * @param timestamp 发布时间戳，作为排序分数
+     */
+    public void publish(Long authorId, Long blogId, long timestamp) {
+        pusher.submit(() -> {
+            try {
+                push(authorId, blogId, timestamp);
+            } catch (Exception e) {
+                log.error("推送博文失败: {}", blogId, e);
+            }
+        });
+    }
+
+    private void push(Long authorId, Long blogId, long timestamp) {
+        String member = blogId.toString();
+        // 1.写入作者发件箱
+        String outbox = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.opsForZSet().add(outbox, member, timestamp);
+        stringRedisTemplate.opsForZSet().removeRange(outbox, 0, -(BOX_SIZE + 1));
+        // 2.大V只写发件箱，由粉丝读取时拉取
+        Integer fans = followMapper.selectCount(new QueryWrapper<Follow>().eq("follow_user_id", authorId));
+        if (fans != null && fans > pushThreshold) {
+            stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, authorId.toString());
+            return;
+        }
+        stringRedisTemplate.opsForSet().remove(FEED_BIG_AUTHOR_KEY, authorId.toString());
+        // 3.按主键分批查询粉丝，每批一次pipeline写入收件箱
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize));
+            if (follows.isEmpty()) {
+                return;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Follow follow : follows) {
+                    String inbox = FEED_KEY + follow.getUserId();
+                    stringConnection.zAdd(inbox, timestamp, member);
+                    stringConnection.zRemRange(inbox, 0, -(BOX_SIZE + 1));
+                }
+                return null;
+            });
+            if (follows.size() < batchSize) {
+                return;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 读取关注流
+     *
+     * @param userId 当前用户
+     * @param max    上一页最小时间戳，首页为null
+     * @param offset 上一页中与最小时间戳相同的条数
+     * @param count  每页条数
+     * @return 按时间戳倒序的博文id与时间戳
+     */
+    public List<ZSetOperations.TypedTuple<String>> scroll(Long userId, Long max, int offset, int count) {
+        // 1.数据源：自己的收件箱，以及关注的大V的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().members(FEED_BIG_AUTHOR_KEY);
+        if (bigAuthors != null && !bigAuthors.isEmpty()) {
+            followMapper.selectList(new QueryWrapper<Follow>()
+                            .select("follow_user_id")
+                            .eq("user_id", userId)
+                            .in("follow_user_id", bigAuthors))
+                    .forEach(follow -> keys.add(FEED_OUTBOX_KEY + follow.getFollowUserId()));
+        }
+        // 2.每个数据源最多读取 offset+count 条，合并后按时间戳倒序排列，同一时间戳与redis一致按成员倒序
+        double maxScore = max == null ? Double.POSITIVE_INFINITY : max;
+        Map<String, ZSetOperations.TypedTuple<String>> merged = new HashMap<>();
+        for (String key : keys) {
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(key, 0, maxScore, 0, offset + count);
+            if (tuples != null) {
+                tuples.forEach(tuple -> merged.putIfAbsent(tuple.getValue(), tuple));
+            }
+        }
+        List<ZSetOperations.TypedTuple<String>> sorted = merged.values().stream()
+                .sorted(Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore)
+                        .thenComparing(ZSetOperations.TypedTuple::getValue)
+                        .reversed())
+                .collect(Collectors.toList());
+        // 3.跳过上一页已返回的、时间戳等于游标的博文
+        int skip = 0;
+        if (max != null) {
+            while (skip < offset && skip < sorted.size() && sorted.get(skip).getScore() == maxScore) {
+                skip++;
+            }
+        }
+        return sorted.subList(skip, Math.min(sorted.size(), skip + count));
+    }
+}
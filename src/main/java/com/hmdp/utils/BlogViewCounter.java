@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.BlogViewStats;
+import com.hmdp.mapper.BlogViewStatsMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOG_UV_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_UV_TTL;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/15
+ * @description BlogViewCounter 博文每日独立访客统计
+ * 每篇博文每天一个HyperLogLog（blog:uv:{yyyyMMdd}:{blogId}），无论访问量多大最多占用12KB，误差约0.81%；
+ * 当天有访问的博文id记在 blog:uv:{yyyyMMdd} 集合中，次日由定时任务汇总写入tb_blog_view_stats
+ */
+@Slf4j
+@Component
+public class BlogViewCounter {
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * 汇总时每批处理的博文数
+     */
+    private static final int ROLLUP_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogViewStatsMapper blogViewStatsMapper;
+
+    /**
+     * 记录一次浏览，在调用方的pipeline中执行，与其他查询共用一次网络往返
+     *
+     * @param connection pipeline中的连接
+     * @param blogId     博文id
+     * @param viewer     访客标识，登录用户为用户id，未登录为客户端地址
+     */
+    public void record(StringRedisConnection connection, Long blogId, String viewer) {
+        String day = LocalDate.now().format(DAY);
+        String uvKey = BLOG_UV_KEY + day + ":" + blogId;
+        String indexKey = BLOG_UV_KEY + day;
+        long ttl = TimeUnit.DAYS.toSeconds(BLOG_UV_TTL);
+        connection.pfAdd(uvKey, viewer);
+        connection.expire(uvKey, ttl);
+        connection.sAdd(indexKey, blogId.toString());
+        connection.expire(indexKey, ttl);
+    }
+
+    /**
+     * 每天凌晨汇总前两天的访客数，写入可重复执行；汇总完成后删除该日的博文id集合
+     */
+    @Scheduled(cron = "${hmdp.blog.uv-rollup-cron:0 10 0 * * ?}")
+    public void rollup() {
+        LocalDate today = LocalDate.now();
+        for (int i = BLOG_UV_TTL.intValue() - 1; i >= 1; i--) {
+            try {
+                rollup(today.minusDays(i));
+            } catch (Exception e) {
+                log.error("博文访客数汇总失败: {}", today.minusDays(i), e);
+            }
+        }
+    }
+
+    /**
+     * 汇总某一天的访客数
+     */
+    public void rollup(LocalDate date) {
+        String day = date.format(DAY);
+        String indexKey = BLOG_UV_KEY + day;
+        List<String> batch = new ArrayList<>(ROLLUP_BATCH_SIZE);
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                .scan(indexKey, ScanOptions.scanOptions().count(ROLLUP_BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == ROLLUP_BATCH_SIZE) {
+                    save(date, batch);
+                    batch.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("扫描博文id集合失败: " + indexKey, e);
+        }
+        if (!batch.isEmpty()) {
+            save(date, batch);
+        }
+        stringRedisTemplate.delete(indexKey);
+    }
+
+    /**
+     * 一次pipeline读取一批博文的访客数，合并为一条INSERT写入
+     */
+    private void save(LocalDate date, List<String> blogIds) {
+        String prefix = BLOG_UV_KEY + date.format(DAY) + ":";
+        List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            blogIds.forEach(id -> stringConnection.pfCount(prefix + id));
+            return null;
+        });
+        List<BlogViewStats> stats = new ArrayList<>(blogIds.size());
+        for (int i = 0; i < blogIds.size(); i++) {
+            Long uv = (Long) counts.get(i);
+            stats.add(new BlogViewStats()
+                    .setBlogId(Long.valueOf(blogIds.get(i)))
+                    .setStatDate(date)
+                    .setUv(uv == null ? 0 : uv));
+        }
+        blogViewStatsMapper.upsertBatch(stats);
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.function.Function;
 
@@ -102,6 +103,36 @@ public class CacheClient {
         return result;
     }
 
+    /**
+     * 列表缓存，空列表同样缓存以防止缓存穿透
+     *
+     * @param <R>             列表元素泛型
+     * @param <ID>            数据库查询参数泛型
+     * @param keyPrefix       key前缀
+     * @param id              数据库查询参数
+     * @param elementType     列表元素类型
+     * @param dbQueryFunction 数据库查询功能逻辑（函数式编程）
+     * @param time            时间
+     * @param unit            单位
+     */
+    public <R, ID> List<R> queryListWithPassThrough(
+            String keyPrefix, ID id, Class<R> elementType,
+            Function<ID, List<R>> dbQueryFunction, long time, TimeUnit unit) {
+
+        String key = keyPrefix + id;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 缓存命中，则直接返回
+        if (json != null) {
+            log.debug("缓存命中!");
+            return JSONUtil.toList(json, elementType);
+        }
+        // 不存在，查询数据库并写缓存
+        log.debug("缓存未命中!");
+        List<R> result = dbQueryFunction.apply(id);
+        this.set(key, result, time, unit);
+        return result;
+    }
+
     /**
      * 逻辑过期解决缓存击穿
      *
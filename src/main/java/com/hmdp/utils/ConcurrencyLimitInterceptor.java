@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/10
+ * @description ConcurrencyLimitInterceptor 秒杀下单并发限制拦截器
+ * 数据库变慢时下单请求不再堆积占满Tomcat线程，超过并发上限的请求立即返回429，店铺浏览等接口不受影响
+ */
+public class ConcurrencyLimitInterceptor implements HandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = ConcurrencyLimitInterceptor.class.getName() + ".start";
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitInterceptor(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * 前置拦截器
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        long start = limiter.tryAcquire();
+        if (start < 0) {
+            RateLimitInterceptor.reject(response, "系统繁忙，请稍后再试!");
+            return false;
+        }
+        request.setAttribute(START_ATTRIBUTE, start);
+        return true;
+    }
+
+    /**
+     * 完成后释放并发名额，处理中抛出异常（已被全局异常处理转换为200响应）按失败计算
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start != null) {
+            request.removeAttribute(START_ATTRIBUTE);
+            boolean failed = ex != null
+                    || request.getAttribute(SystemConstants.REQUEST_FAILED_ATTRIBUTE) != null
+                    || response.getStatus() >= 500;
+            limiter.release((Long) start, !failed);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/9
+ * @description DeltaCounter 计数变化的内存聚合，用于计数字段的批量写回
+ * 同一id的多次变化合并为一个差值，抵消为0时直接移除；写回时相同差值的id归为一组，每组一条UPDATE
+ */
+public class DeltaCounter {
+
+    private final Map<Long, Integer> deltas = new ConcurrentHashMap<>();
+
+    /**
+     * 累加变化量
+     */
+    public void add(Long id, int delta) {
+        deltas.merge(id, delta, DeltaCounter::sumOrRemove);
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    /**
+     * 取出当前全部变化量并按差值分组，取出后的新变化计入下一轮
+     */
+    public Map<Integer, List<Long>> drain() {
+        Map<Integer, List<Long>> byDelta = new HashMap<>();
+        for (Long id : new ArrayList<>(deltas.keySet())) {
+            Integer delta = deltas.remove(id);
+            if (delta != null && delta != 0) {
+                byDelta.computeIfAbsent(delta, d -> new ArrayList<>()).add(id);
+            }
+        }
+        return byDelta;
+    }
+
+    /**
+     * 写回失败时放回，下一轮重试
+     */
+    public void restore(Collection<Long> ids, int delta) {
+        ids.forEach(id -> add(id, delta));
+    }
+
+    /**
+     * 生成把变化量加到计数字段上的SET片段，结果不小于0
+     * 计数字段为无符号整数，直接加负数在MySQL中会越界报错，所以减少时先比较再相减
+     *
+     * @param column 计数字段
+     * @param delta  变化量
+     */
+    public static String setSql(String column, int delta) {
+        if (delta >= 0) {
+            return column + " = COALESCE(" + column + ", 0) + " + delta;
+        }
+        int decrease = -delta;
+        return column + " = CASE WHEN " + column + " > " + decrease
+                + " THEN " + column + " - " + decrease + " ELSE 0 END";
+    }
+
+    private static Integer sumOrRemove(Integer a, Integer b) {
+        int sum = a + b;
+        return sum == 0 ? null : sum;
+    }
+}
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_DECAYED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/13
+ * @description HotBlogRanking 博文热榜
+ * 热度 = 点赞数*1 + 评论数*2，随时间按半衰期指数衰减；点赞、评论时增量累加，
+ * 定时任务统一把所有分数乘以衰减系数，热榜直接从ZSET按分数滚动分页读取
+ */
+@Slf4j
+@Component
+public class HotBlogRanking {
+
+    /**
+     * 各类事件的热度权重
+     */
+    public static final double LIKE_WEIGHT = 1;
+    public static final double COMMENT_WEIGHT = 2;
+    private static final double PUBLISH_WEIGHT = 1;
+
+    /**
+     * 低于该分数的博文移出热榜
+     */
+    private static final double MIN_SCORE = 0.01;
+
+    /**
+     * 两次衰减的最小间隔
+     */
+    private static final long DECAY_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * 加载Lua脚本
+     */
+    private static final DefaultRedisScript<Long> DECAY_SCRIPT;
+
+    static {
+        DECAY_SCRIPT = new DefaultRedisScript<>();
+        DECAY_SCRIPT.setLocation(new ClassPathResource("script/hot_decay.lua"));
+        DECAY_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**
+     * 热度半衰期，小时
+     */
+    @Value("${hmdp.blog.hot.half-life:24}")
+    private long halfLifeHours;
+
+    /**
+     * 热榜保留条数
+     */
+    @Value("${hmdp.blog.hot.size:1000}")
+    private int size;
+
+    /**
+     * 发布博文，新博文以初始热度进入热榜
+     */
+    public void onPublish(Long blogId) {
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blogId.toString(), PUBLISH_WEIGHT);
+    }
+
+    /**
+     * 点赞、评论等事件，delta为权重，取消点赞为负数
+     */
+    public void onEvent(Long blogId, double delta) {
+        stringRedisTemplate.opsForZSet().incrementScore(BLOG_HOT_KEY, blogId.toString(), delta);
+    }
+
+    /**
+     * 博文在热榜中的名次，从0开始，不在热榜中返回null
+     */
+    public Long rank(Long blogId) {
+        return stringRedisTemplate.opsForZSet().reverseRank(BLOG_HOT_KEY, blogId.toString());
+    }
+
+    /**
+     * 按分数从高到低滚动读取热榜
+     *
+     * @param max    上一页最小分数，首页为null
+     * @param offset 上一页中与最小分数相同的条数
+     * @param count  每页条数
+     */
+    public Set<ZSetOperations.TypedTuple<String>> scroll(Double max, int offset, int count) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(
+                BLOG_HOT_KEY, Double.NEGATIVE_INFINITY, max == null ? Double.POSITIVE_INFINITY : max, offset, count);
+        return tuples == null ? Collections.emptySet() : tuples;
+    }
+
+    /**
+     * 定时衰减，多节点同时执行时由脚本保证间隔内只衰减一次；热榜不存在时从数据库重建
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void decay() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+                rebuild();
+                return;
+            }
+            Long decayed = stringRedisTemplate.execute(DECAY_SCRIPT,
+                    Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_DECAYED_KEY),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(TimeUnit.HOURS.toMillis(halfLifeHours)),
+                    String.valueOf(DECAY_INTERVAL),
+                    String.valueOf(size),
+                    String.valueOf(MIN_SCORE));
+            if (decayed != null && decayed > 0) {
+                log.debug("热榜衰减完成，共{}篇", decayed);
+            }
+        } catch (Exception e) {
+            log.error("热榜衰减失败", e);
+        }
+    }
+
+    /**
+     * 从数据库重建热榜，只统计分数仍在分数线以上的时间窗口内的博文
+     */
+    private void rebuild() {
+        LocalDateTime now = LocalDateTime.now();
+        // 约7个半衰期后初始热度衰减到分数线以下
+        LocalDateTime since = now.minusHours(halfLifeHours * 7);
+        List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                .select("id", "liked", "comments", "create_time")
+                .ge("create_time", since)
+                .orderByDesc("liked")
+                .last("limit " + size));
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+        double halfLife = TimeUnit.HOURS.toMillis(halfLifeHours);
+        for (Blog blog : blogs) {
+            double raw = PUBLISH_WEIGHT
+                    + LIKE_WEIGHT * Optional.ofNullable(blog.getLiked()).orElse(0)
+                    + COMMENT_WEIGHT * Optional.ofNullable(blog.getComments()).orElse(0);
+            long age = Duration.between(blog.getCreateTime(), now).toMillis();
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), raw * Math.pow(0.5, age / halfLife)));
+        }
+        if (!tuples.isEmpty()) {
+            stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, tuples);
+        }
+        stringRedisTemplate.opsForValue().set(BLOG_HOT_DECAYED_KEY, String.valueOf(System.currentTimeMillis()));
+        log.info("热榜重建完成，共{}篇", tuples.size());
+    }
+}
@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/6
+ * @description IdempotentExecutor 基于幂等键的请求去重执行器
+ * 同一幂等键只执行一次，结果短期保存在Redis中，重放请求直接返回首次结果；
+ * 并发的重复请求等待首个请求的结果，而不是重新执行。稍后重试可能成功的失败结果（如秒杀未开始、排队中）不保存，
+ * 与执行异常一样释放幂等键，客户端用同一幂等键重试时重新执行
+ */
+@Slf4j
+@Component
+public class IdempotentExecutor {
+
+    /**
+     * 处理中标记
+     */
+    private static final String PENDING = "PENDING";
+
+    /**
+     * 重复请求等待首个请求结果的最长时间，毫秒
+     */
+    private static final long WAIT_TIMEOUT = 5000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本节点处理中的请求
+     */
+    private final Map<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 幂等执行
+     *
+     * @param scope          业务范围，如 seckill:{voucherId}:{userId}
+     * @param idempotencyKey 客户端生成的幂等键
+     * @param action         实际业务逻辑
+     * @param retryable      结果是否可以重试，可以重试的结果不保存
+     */
+    public Result execute(String scope, String idempotencyKey, Supplier<Result> action, Predicate<Result> retryable) {
+        String key = IDEMPOTENT_KEY + scope + ":" + idempotencyKey;
+        // 1.本节点已有相同请求在处理，等待其结果
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        CompletableFuture<Result> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            // 2.抢占幂等键，抢占成功的请求负责执行
+            Boolean first = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(key, PENDING, IDEMPOTENT_PENDING_TTL, TimeUnit.SECONDS);
+            Result result;
+            if (Boolean.TRUE.equals(first)) {
+                result = runAndStore(key, action, retryable);
+            } else {
+                // 3.其他节点已执行或正在执行，读取其结果
+                result = waitForStored(key);
+            }
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Result runAndStore(String key, Supplier<Result> action, Predicate<Result> retryable) {
+        Result result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            // 执行异常不保存结果，允许客户端重试
+            stringRedisTemplate.delete(key);
+            throw e;
+        }
+        if (retryable.test(result)) {
+            // 稍后可能成功的失败结果不保存，允许客户端重试
+            stringRedisTemplate.delete(key);
+            return result;
+        }
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(result), IDEMPOTENT_TTL, TimeUnit.MINUTES);
+        return result;
+    }
+
+    /**
+     * 轮询Redis直到首个请求写入结果
+     */
+    private Result waitForStored(String key) {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        long backoff = 20;
+        while (true) {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            if (value == null) {
+                // 首个请求执行失败已释放幂等键
+                return Result.fail("请求处理失败，请重试!");
+            }
+            if (!PENDING.equals(value)) {
+                log.debug("幂等键命中，返回首次结果: {}", key);
+                return JSONUtil.toBean(value, Result.class);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return Result.fail("请求处理中，请稍后查询!");
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Result.fail("请求处理中，请稍后查询!");
+            }
+            backoff = Math.min(backoff * 2, 200);
+        }
+    }
+
+    private Result await(CompletableFuture<Result> future) {
+        try {
+            return future.get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return Result.fail("请求处理中，请稍后查询!");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.fail("请求处理中，请稍后查询!");
+        } catch (ExecutionException e) {
+            return Result.fail("请求处理失败，请重试!");
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/19
+ * @description ImageGarbageCollector 回收没有博文引用的图片
+ * 放弃发布的博文留下的图片不会有人删除，定时任务逐个目录扫描 /blogs/{d1}/{d2}，
+ * 与 tb_blog.images 比对后删除超过宽限期、仍无博文引用的图片及其变体，同时清理上传中断遗留的临时文件。
+ * 博文可能只引用了缩略图或网页图，比对时原图与变体按去掉后缀的同一名称计算，引用其中任一个都保留整组图片。
+ * 博文引用先分批读入内存，删除前再对候选图片批量查一次库，扫描速度受限，避免影响线上的磁盘读写
+ */
+@Slf4j
+@Component
+public class ImageGarbageCollector {
+
+    /**
+     * 博文中保存的图片路径前缀
+     */
+    private static final String URL_PREFIX = "/imgs";
+    private static final String BLOG_DIR = "/blogs";
+
+    /**
+     * 读取博文引用时每批的博文数
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 删除前复查时每批的图片数
+     */
+    private static final int CHECK_BATCH_SIZE = 50;
+
+    /**
+     * 临时文件保留时间
+     */
+    private static final long TMP_GRACE = TimeUnit.HOURS.toMillis(1);
+
+    private static final long LOCK_TTL = TimeUnit.HOURS.toSeconds(2);
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private ImageStore imageStore;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 宽限期，小时，新上传的图片在博文发布前不会被回收
+     */
+    @Value("${hmdp.image.gc.grace:24}")
+    private long grace;
+
+    /**
+     * 每秒最多检查的文件数
+     */
+    @Value("${hmdp.image.gc.scan-rate:500}")
+    private int scanRate;
+
+    private Counter scannedCounter;
+    private Counter deletedCounter;
+    private Counter reclaimedCounter;
+
+    @PostConstruct
+    public void init() {
+        String name = "image.gc";
+        scannedCounter = meterRegistry.counter(name + ".scanned");
+        deletedCounter = meterRegistry.counter(name + ".deleted");
+        reclaimedCounter = meterRegistry.counter(name + ".reclaimed.bytes");
+    }
+
+    /**
+     * 每天凌晨回收一次，多个节点只有一个执行
+     */
+    @Scheduled(cron = "${hmdp.image.gc.cron:0 30 3 * * ?}")
+    public void collect() {
+        ILock lock = new SimpleRedisLock("image:gc", stringRedisTemplate);
+        if (!lock.tryLock(LOCK_TTL)) {
+            return;
+        }
+        try {
+            Report report = collect(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(grace));
+            log.info("图片回收完成，检查{}个文件，删除{}个，释放{}字节，耗时{}ms",
+                    report.scanned, report.deleted, report.reclaimed, report.elapsed);
+        } catch (Exception e) {
+            log.error("图片回收失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 回收修改时间早于before的无引用图片
+     */
+    public Report collect(long before) throws IOException {
+        Report report = new Report();
+        long start = System.currentTimeMillis();
+        // 1.清理上传中断遗留的临时文件
+        sweepTmp(report);
+        // 2.逐个目录比对博文引用
+        Set<String> referenced = loadReferences();
+        File blogDir = imageStore.resolve(BLOG_DIR);
+        if (blogDir != null && blogDir.isDirectory()) {
+            walk(blogDir.toPath(), BLOG_DIR, 0, referenced, before, report, start);
+        }
+        report.elapsed = System.currentTimeMillis() - start;
+        return report;
+    }
+
+    private void sweepTmp(Report report) throws IOException {
+        File tmpDir = new File(imageStore.getRoot(), ImageStore.TMP_DIR);
+        if (!tmpDir.isDirectory()) {
+            return;
+        }
+        long before = System.currentTimeMillis() - TMP_GRACE;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir.toPath())) {
+            for (Path path : files) {
+                File file = path.toFile();
+                if (file.isFile() && file.lastModified() < before) {
+                    long size = file.length();
+                    if (file.delete()) {
+                        onDeleted(report, size);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 分批读取所有博文引用的图片
+     */
+    private Set<String> loadReferences() {
+        Set<String> referenced = new HashSet<>();
+        long lastId = 0;
+        while (true) {
+            List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                    .select("id", "images")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + LOAD_BATCH_SIZE));
+            blogs.forEach(blog -> addImages(referenced, blog.getImages()));
+            if (blogs.size() < LOAD_BATCH_SIZE) {
+                return referenced;
+            }
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 先处理当前目录下的文件，再进入子目录，/blogs 下最多两层
+     */
+    private void walk(Path dir, String prefix, int depth, Set<String> referenced, long before,
+                      Report report, long start) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    children.add(entry);
+                } else {
+                    names.add(prefix + "/" + entry.getFileName());
+                }
+            }
+        }
+        sweep(names, referenced, before, report, start);
+        if (depth < 2) {
+            for (Path child : children) {
+                walk(child, prefix + "/" + child.getFileName(), depth + 1, referenced, before, report, start);
+            }
+        }
+    }
+
+    /**
+     * 处理一个目录中的文件：变体随原图一起回收，原图不存在时单独回收
+     */
+    private void sweep(List<String> names, Set<String> referenced, long before, Report report, long start) {
+        Set<String> originals = new HashSet<>();
+        names.stream().filter(name -> !isVariant(name)).forEach(name -> originals.add(StrUtil.subBefore(name, ".", true)));
+        List<String> candidates = new ArrayList<>();
+        for (String name : names) {
+            throttle(++report.scanned, start);
+            scannedCounter.increment();
+            if (referenced.contains(baseName(name))) {
+                continue;
+            }
+            if (isVariant(name) && originals.contains(StrUtil.subBefore(name, "_", true))) {
+                continue;
+            }
+            File file = imageStore.resolve(name);
+            if (file != null && file.lastModified() < before) {
+                candidates.add(name);
+            }
+        }
+        for (int i = 0; i < candidates.size(); i += CHECK_BATCH_SIZE) {
+            List<String> batch = candidates.subList(i, Math.min(i + CHECK_BATCH_SIZE, candidates.size()));
+            // 读入引用之后可能有新发布的博文用到了这些图片
+            Set<String> recent = queryReferences(batch);
+            for (String name : batch) {
+                if (recent.contains(baseName(name))) {
+                    continue;
+                }
+                long size = imageStore.reclaim(name, before);
+                if (size >= 0) {
+                    log.debug("回收无引用图片: {}", name);
+                    onDeleted(report, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询引用了这批图片（及其变体）中任一张的博文，返回其中被引用的图片名称
+     */
+    private Set<String> queryReferences(List<String> names) {
+        QueryWrapper<Blog> wrapper = new QueryWrapper<Blog>().select("images");
+        wrapper.and(w -> names.forEach(name -> w.or().like("images", URL_PREFIX + baseName(name))));
+        Set<String> referenced = new HashSet<>();
+        blogMapper.selectList(wrapper).forEach(blog -> addImages(referenced, blog.getImages()));
+        return referenced;
+    }
+
+    /**
+     * 记录博文引用的图片，变体按原图记录
+     */
+    private void addImages(Set<String> referenced, String images) {
+        if (StrUtil.isBlank(images)) {
+            return;
+        }
+        for (String image : images.split(",")) {
+            String name = image.trim();
+            referenced.add(baseName(name.startsWith(URL_PREFIX) ? name.substring(URL_PREFIX.length()) : name));
+        }
+    }
+
+    /**
+     * 去掉扩展名和变体后缀的图片名称，原图与其变体相同
+     */
+    private String baseName(String name) {
+        return isVariant(name) ? StrUtil.subBefore(name, "_", true) : StrUtil.subBefore(name, ".", true);
+    }
+
+    private boolean isVariant(String name) {
+        String base = StrUtil.subBefore(name, ".", true);
+        return name.endsWith(".jpg")
+                && (base.endsWith(ImageProcessor.THUMBNAIL_SUFFIX) || base.endsWith(ImageProcessor.WEB_SUFFIX));
+    }
+
+    private void onDeleted(Report report, long size) {
+        report.deleted++;
+        report.reclaimed += size;
+        deletedCounter.increment();
+        reclaimedCounter.increment(size);
+    }
+
+    /**
+     * 按检查的文件数限速
+     */
+    private void throttle(long scanned, long start) {
+        long expected = scanned * 1000 / scanRate;
+        long elapsed = System.currentTimeMillis() - start;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep(expected - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 一次回收的结果
+     */
+    @Getter
+    public static class Report {
+        private long scanned;
+        private long deleted;
+        private long reclaimed;
+        private long elapsed;
+    }
+}
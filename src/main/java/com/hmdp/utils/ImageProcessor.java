@@ -0,0 +1,235 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/16
+ * @description ImageProcessor 上传图片的后台处理
+ * 原图保存后提交到有界线程池，生成缩略图和网页展示图（JPEG）；队列满时由上传请求线程自己处理，以此限制上传速度。
+ * 大图先按采样解码到接近目标尺寸，避免把整张原图解码进内存；生成的文件先写临时文件再改名，不会被读到一半
+ */
+@Slf4j
+@Component
+public class ImageProcessor {
+
+    /**
+     * 变体文件名后缀，如 /blogs/1/2/{name}_thumb.jpg
+     */
+    public static final String THUMBNAIL_SUFFIX = "_thumb";
+    public static final String WEB_SUFFIX = "_web";
+    private static final String VARIANT_EXTENSION = "jpg";
+
+    /**
+     * 支持处理的格式
+     */
+    private static final List<String> SUPPORTED = Arrays.asList("jpg", "jpeg", "png", "bmp", "gif");
+
+    /**
+     * 超过该像素数的图片不处理，防止解压炸弹
+     */
+    private static final long MAX_PIXELS = 100_000_000L;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.image.workers:2}")
+    private int workers;
+
+    @Value("${hmdp.image.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${hmdp.image.thumbnail-size:200}")
+    private int thumbnailSize;
+
+    @Value("${hmdp.image.web-size:1080}")
+    private int webSize;
+
+    @Value("${hmdp.image.quality:0.8}")
+    private float quality;
+
+    private ThreadPoolExecutor executor;
+    private Timer processTimer;
+    private Counter succeededCounter;
+    private Counter failedCounter;
+    private Counter callerRunsCounter;
+
+    @PostConstruct
+    public void init() {
+        String name = "image.process";
+        processTimer = meterRegistry.timer(name + ".time");
+        succeededCounter = meterRegistry.counter(name, "result", "succeeded");
+        failedCounter = meterRegistry.counter(name, "result", "failed");
+        callerRunsCounter = meterRegistry.counter(name, "result", "caller_runs");
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                workers, workers,
+                0, TimeUnit.MILLISECONDS,
+                // 有界队列
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-worker-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // 队列满时由上传线程处理，上传变慢即是背压
+                (runnable, pool) -> {
+                    callerRunsCounter.increment();
+                    if (!pool.isShutdown()) {
+                        runnable.run();
+                    }
+                });
+        meterRegistry.gauge(name + ".queue", executor, e -> e.getQueue().size());
+        meterRegistry.gauge(name + ".active", executor, ThreadPoolExecutor::getActiveCount);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 是否支持生成变体
+     */
+    public boolean supports(String fileName) {
+        return SUPPORTED.contains(StrUtil.subAfter(fileName, ".", true).toLowerCase());
+    }
+
+    /**
+     * 变体的文件名：去掉原图扩展名，加上后缀，统一为jpg
+     */
+    public static String variantName(String fileName, String suffix) {
+        return StrUtil.subBefore(fileName, ".", true) + suffix + "." + VARIANT_EXTENSION;
+    }
+
+    /**
+     * 提交后台处理，立即返回
+     *
+     * @param dir      上传根目录
+     * @param fileName 原图相对路径
+     */
+    public void submit(String dir, String fileName) {
+        executor.execute(() -> process(dir, fileName));
+    }
+
+    private void process(String dir, String fileName) {
+        long start = System.nanoTime();
+        try {
+            BufferedImage image = read(new File(dir, fileName), webSize);
+            if (image == null) {
+                log.warn("图片无法解码，跳过处理: {}", fileName);
+                failedCounter.increment();
+                return;
+            }
+            write(resize(image, webSize), new File(dir, variantName(fileName, WEB_SUFFIX)));
+            write(resize(image, thumbnailSize), new File(dir, variantName(fileName, THUMBNAIL_SUFFIX)));
+            succeededCounter.increment();
+        } catch (Exception e) {
+            log.error("图片处理失败: {}", fileName, e);
+            failedCounter.increment();
+        } finally {
+            processTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 按采样解码，长边超过目标尺寸2倍时隔行隔列采样到接近2倍，解码结果的长边仍不小于目标尺寸；
+     * 采样间隔向上取整，4000x3000的照片生成1080的网页图时按2采样，只解码约1/4的像素
+     */
+    private BufferedImage read(File file, int target) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    log.warn("图片尺寸过大，跳过处理: {}x{} {}", width, height, file);
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, (Math.max(width, height) + target * 2 - 1) / (target * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 等比缩放到长边不超过size，透明背景填充白色
+     */
+    private BufferedImage resize(BufferedImage source, int size) {
+        double scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * 以JPEG写入临时文件后原子改名
+     */
+    private void write(BufferedImage image, File target) throws IOException {
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), ".variant", ".tmp");
+        try {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName(VARIANT_EXTENSION).next();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(tmp.toFile())) {
+                writer.setOutput(output);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.IMAGE_DELETE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.IMAGE_REF_KEY;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/17
+ * @description ImageStore 按内容寻址的图片存储
+ * 上传流边写临时文件边计算SHA-256，文件名即内容摘要：/blogs/{d1}/{d2}/{sha256}.{后缀}，d1、d2取摘要前两位十六进制数；
+ * 相同内容的图片只保存一份，引用按上传用户分别计数，用户只能释放自己的引用，所有用户都释放后才真正删除文件。
+ * 同一图片的登记与删除用分布式锁串行，避免删除文件时恰好有人重新上传
+ */
+@Slf4j
+@Component
+public class ImageStore {
+
+    /**
+     * 按内容寻址的文件名
+     */
+    private static final Pattern CONTENT_NAME = Pattern.compile("^/blogs/\\d{1,2}/\\d{1,2}/[0-9a-f]{64}(\\.[a-z0-9]{1,8})?$");
+    private static final Pattern VARIANT_NAME = Pattern.compile("^/blogs/\\d{1,2}/\\d{1,2}/[0-9a-f]{64}_(thumb|web)\\.jpg$");
+
+    /**
+     * 合法的扩展名
+     */
+    private static final Pattern SUFFIX = Pattern.compile("^[a-z0-9]{1,8}$");
+
+    /**
+     * 可以公开访问的目录
+     */
+    private static final String[] PUBLIC_DIRS = {"/blogs", "/icons"};
+
+    /**
+     * 上传中的临时文件目录，与图片在同一文件系统，保证改名是原子的
+     */
+    public static final String TMP_DIR = "tmp";
+
+    private static final long LOCK_TTL = 10;
+    private static final int LOCK_RETRIES = 50;
+
+    /**
+     * 加载Lua脚本
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("script/image_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ImageProcessor imageProcessor;
+
+    /**
+     * 图片根目录
+     */
+    @Value("${hmdp.image.root:" + SystemConstants.IMAGE_UPLOAD_DIR + "}")
+    private String root;
+
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * 解析图片相对路径，不在根目录下时返回null
+     */
+    public File resolve(String name) {
+        File file = new File(root, name);
+        return FileUtil.isSub(new File(root), file) ? file : null;
+    }
+
+    /**
+     * 解析可以公开访问的图片，只有博文图片和头像目录可以访问，上传中的临时文件等返回null
+     */
+    public File resolvePublic(String name) {
+        for (String dir : PUBLIC_DIRS) {
+            if (name.startsWith(dir + "/")) {
+                File file = new File(root, name);
+                return FileUtil.isSub(new File(root, dir), file) ? file : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 是否为按内容寻址的图片（及其变体），内容不会改变
+     */
+    public static boolean isContentAddressed(String name) {
+        return CONTENT_NAME.matcher(name).matches() || VARIANT_NAME.matcher(name).matches();
+    }
+
+    /**
+     * 保存上传的图片，内容已存在时复用
+     *
+     * @param userId 上传用户，登记为图片的引用者
+     * @return 图片相对路径
+     */
+    public String store(MultipartFile image, Long userId) throws IOException {
+        String suffix = StrUtil.subAfter(image.getOriginalFilename(), ".", true).toLowerCase();
+        // 1.边写临时文件边计算摘要，只读一遍上传流
+        File tmpDir = new File(root, TMP_DIR);
+        FileUtil.mkdir(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir.toPath(), "upload", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(image.getInputStream(), digest)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = HexUtil.encodeHexStr(digest.digest());
+            String name = StrUtil.format("/blogs/{}/{}/{}", Character.digit(hash.charAt(0), 16),
+                    Character.digit(hash.charAt(1), 16), hash)
+                    + (SUFFIX.matcher(suffix).matches() ? "." + suffix : "");
+            // 2.登记引用，文件不存在时把临时文件移过去
+            String id = FileUtil.getName(name);
+            ILock lock = lock(id);
+            try {
+                stringRedisTemplate.opsForHash().increment(IMAGE_REF_KEY + id, userId.toString(), 1);
+                File target = new File(root, name);
+                if (target.exists()) {
+                    // 刷新修改时间，避免被当作无人引用的旧文件回收
+                    Files.setLastModifiedTime(target.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+                    log.debug("图片已存在，复用: {}", name);
+                } else {
+                    FileUtil.mkdir(target.getParentFile());
+                    Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                lock.unlock();
+            }
+            // 3.变体缺失（首次上传或上次处理失败）时生成
+            if (imageProcessor.supports(name)
+                    && !new File(root, ImageProcessor.variantName(name, ImageProcessor.THUMBNAIL_SUFFIX)).exists()) {
+                imageProcessor.submit(root, name);
+            }
+            return name;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 释放用户的一次引用，所有用户都没有引用时删除图片及其变体
+     *
+     * @param name   图片相对路径
+     * @param userId 释放引用的用户
+     * @return 文件名不合法或该用户没有引用这张图片时返回false
+     */
+    public boolean release(String name, Long userId) {
+        // 按内容寻址之前上传的图片没有登记引用者，无法确认归属，交由回收任务按博文引用判断
+        if (!CONTENT_NAME.matcher(name).matches()) {
+            return false;
+        }
+        String id = FileUtil.getName(name);
+        ILock lock = lock(id);
+        try {
+            Long refs = stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    Collections.singletonList(IMAGE_REF_KEY + id), userId.toString());
+            if (refs == null || refs < 0) {
+                return false;
+            }
+            // 仍有其他用户引用时保留文件
+            if (refs == 0) {
+                delete(name);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 回收无人引用的图片及其变体，加锁后再确认修改时间，重新上传同一图片会刷新修改时间
+     *
+     * @param name   图片相对路径
+     * @param before 只回收修改时间早于该时刻的文件
+     * @return 释放的字节数，文件不存在或已被刷新时返回-1
+     */
+    public long reclaim(String name, long before) {
+        File file = resolve(name);
+        if (file == null) {
+            return -1;
+        }
+        String id = FileUtil.getName(name);
+        ILock lock = lock(id);
+        try {
+            if (!file.isFile() || file.lastModified() >= before) {
+                return -1;
+            }
+            long size = file.length()
+                    + new File(root, ImageProcessor.variantName(name, ImageProcessor.THUMBNAIL_SUFFIX)).length()
+                    + new File(root, ImageProcessor.variantName(name, ImageProcessor.WEB_SUFFIX)).length();
+            delete(name);
+            if (CONTENT_NAME.matcher(name).matches()) {
+                stringRedisTemplate.delete(IMAGE_REF_KEY + id);
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void delete(String name) {
+        FileUtil.del(new File(root, name));
+        FileUtil.del(new File(root, ImageProcessor.variantName(name, ImageProcessor.THUMBNAIL_SUFFIX)));
+        FileUtil.del(new File(root, ImageProcessor.variantName(name, ImageProcessor.WEB_SUFFIX)));
+        // 通知各节点清除图片的内存缓存
+        stringRedisTemplate.convertAndSend(IMAGE_DELETE_CHANNEL, name);
+    }
+
+    /**
+     * 获取同一图片的锁，短暂重试
+     */
+    private ILock lock(String id) {
+        ILock lock = new SimpleRedisLock("image:" + id, stringRedisTemplate);
+        for (int i = 0; i < LOCK_RETRIES; i++) {
+            if (lock.tryLock(LOCK_TTL)) {
+                return lock;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new IllegalStateException("图片处理繁忙，请稍后重试");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_TTL;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/11
+ * @description OrderStatusCache 异步下单结果缓存
+ * 查询顺序：本节点缓存 -> Redis -> 数据库；落库线程写入结果时同时更新本地缓存和Redis，
+ * 状态与下单用户一起保存（{userId}:{status}），只有下单用户可以查询，不存在的订单短暂缓存空值；
+ * 长轮询的请求挂起等待，本节点落库的订单立即唤醒，其他节点落库的订单由定时任务批量读取Redis后唤醒
+ */
+@Slf4j
+@Component
+public class OrderStatusCache {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    /**
+     * 本节点的订单状态，只缓存最终状态，值为 {userId}:{status}
+     */
+    private final Cache<Long, String> statuses = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(ORDER_STATUS_TTL, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 等待结果的长轮询请求
+     */
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 写入最终结果，并唤醒等待中的请求
+     *
+     * @param orderId 订单id
+     * @param userId  下单用户，只有下单用户可以查询
+     * @param status  SUCCESS 或 FAILED
+     */
+    public void complete(Long orderId, Long userId, String status) {
+        String value = userId + ":" + status;
+        statuses.put(orderId, value);
+        stringRedisTemplate.opsForValue().set(ORDER_STATUS_KEY + orderId, value, ORDER_STATUS_TTL, TimeUnit.MINUTES);
+        wakeUp(orderId, status);
+    }
+
+    /**
+     * 长轮询查询订单状态，处理中的订单挂起直到出结果或超时
+     *
+     * @param orderId       订单id
+     * @param userId        查询的用户，不是下单用户时按订单不存在处理
+     * @param timeoutMillis 最长等待时间
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long timeoutMillis) {
+        Result pending = Result.ok(new OrderStatusDTO(orderId, OrderStatusDTO.PENDING));
+        DeferredResult<Result> deferred = new DeferredResult<>(timeoutMillis, pending);
+        String value = load(orderId);
+        if (value == null || !userId.toString().equals(StrUtil.subBefore(value, ":", false))) {
+            deferred.setResult(Result.fail("订单不存在!"));
+            return deferred;
+        }
+        String status = StrUtil.subAfter(value, ":", false);
+        if (!OrderStatusDTO.PENDING.equals(status) || timeoutMillis <= 0) {
+            deferred.setResult(Result.ok(new OrderStatusDTO(orderId, status)));
+            return deferred;
+        }
+        waiters.compute(orderId, (id, queue) -> {
+            queue = queue == null ? new ConcurrentLinkedQueue<>() : queue;
+            queue.add(deferred);
+            return queue;
+        });
+        deferred.onCompletion(() -> waiters.computeIfPresent(orderId, (id, queue) -> {
+            queue.remove(deferred);
+            return queue.isEmpty() ? null : queue;
+        }));
+        // 注册期间结果可能已写入
+        String latest = statuses.getIfPresent(orderId);
+        if (latest != null) {
+            deferred.setResult(Result.ok(new OrderStatusDTO(orderId, StrUtil.subAfter(latest, ":", false))));
+        }
+        return deferred;
+    }
+
+    /**
+     * 其他节点落库的订单，批量读取Redis中的结果唤醒等待的请求
+     */
+    @Scheduled(fixedDelay = 100)
+    public void pollWaiters() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        List<Long> orderIds = new ArrayList<>(waiters.keySet());
+        List<String> keys = new ArrayList<>(orderIds.size());
+        orderIds.forEach(orderId -> keys.add(ORDER_STATUS_KEY + orderId));
+        try {
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+            if (values == null) {
+                return;
+            }
+            for (int i = 0; i < orderIds.size(); i++) {
+                String value = values.get(i);
+                String status = StrUtil.subAfter(value, ":", false);
+                if (StrUtil.isNotEmpty(status) && !OrderStatusDTO.PENDING.equals(status)) {
+                    statuses.put(orderIds.get(i), value);
+                    wakeUp(orderIds.get(i), status);
+                }
+            }
+        } catch (Exception e) {
+            log.error("查询订单状态失败", e);
+        }
+    }
+
+    /**
+     * 读取订单状态
+     *
+     * @return {userId}:{status}，订单不存在时返回null
+     */
+    private String load(Long orderId) {
+        // 1.本节点缓存
+        String value = statuses.getIfPresent(orderId);
+        if (value != null) {
+            return value;
+        }
+        // 2.Redis，空值代表订单不存在
+        String key = ORDER_STATUS_KEY + orderId;
+        value = stringRedisTemplate.opsForValue().get(key);
+        if (value != null) {
+            if (value.isEmpty()) {
+                return null;
+            }
+            if (!value.endsWith(":" + OrderStatusDTO.PENDING)) {
+                statuses.put(orderId, value);
+            }
+            return value;
+        }
+        // 3.数据库，结果已过期或Redis数据丢失
+        VoucherOrder order = voucherOrderMapper.selectById(orderId);
+        if (order != null) {
+            value = order.getUserId() + ":" + OrderStatusDTO.SUCCESS;
+            statuses.put(orderId, value);
+            return value;
+        }
+        // 不存在的订单短暂缓存空值，防止用随机id反复查询数据库；下单时会直接覆盖
+        stringRedisTemplate.opsForValue().setIfAbsent(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+        return null;
+    }
+
+    private void wakeUp(Long orderId, String status) {
+        Queue<DeferredResult<Result>> queue = waiters.remove(orderId);
+        if (queue == null) {
+            return;
+        }
+        Result result = Result.ok(new OrderStatusDTO(orderId, status));
+        DeferredResult<Result> deferred;
+        while ((deferred = queue.poll()) != null) {
+            deferred.setResult(result);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/3
+ * @description RateLimitInterceptor 秒杀下单限流拦截器，在创建锁、访问数据库之前拒绝超频请求
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private SeckillRateLimiter rateLimiter;
+
+    public RateLimitInterceptor(SeckillRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 前置拦截器
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.获取路径中的优惠券id
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String voucherId = pathVariables == null ? null : pathVariables.get("id");
+        if (voucherId == null) {
+            return true;
+        }
+        // 2.按用户限流，登录拦截器在前，执行到这里时一定已登录
+        if (rateLimiter.tryAcquire(UserHolder.getUser().getId().toString(), voucherId)) {
+            return true;
+        }
+        // 3.被限流，直接返回429
+        reject(response, "请求过于频繁，请稍后再试!");
+        return false;
+    }
+
+    /**
+     * 返回429，并提示客户端1秒后重试
+     */
+    static void reject(HttpServletResponse response, String message) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", "1");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(message)));
+    }
+}
@@ -5,18 +5,64 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_LOGOUT_CHANNEL = "login:logout";
+    public static final String LOGIN_DENY_KEY = "login:deny";
+    public static final String LOGIN_DENY_CHANNEL = "login:deny:added";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:shop:";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_SECKILL_VOUCHER_TTL = 30L;
+    public static final String CACHE_SECKILL_VOUCHER_KEY = "cache:seckill:voucher:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_PLACEHOLDER = "0";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_STREAM = "stream.orders.dead";
+    public static final String SECKILL_QUEUE_KEY = "seckill:queue:";
+    public static final String SECKILL_QUEUE_SEQ_KEY = "seckill:queue:seq:";
+    public static final String SECKILL_LIMIT_USER_KEY = "seckill:limit:user:";
+    public static final String SECKILL_LIMIT_VOUCHER_KEY = "seckill:limit:voucher:";
+    public static final String ORDER_UNPAID_DELAY_KEY = "delay:order:unpaid";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 30L;
+
+    public static final String IDEMPOTENT_KEY = "idempotent:";
+    public static final Long IDEMPOTENT_PENDING_TTL = 30L;
+    public static final Long IDEMPOTENT_TTL = 10L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_DECAYED_KEY = "blog:hot:decayed-at";
+    public static final String BLOG_COMMENTS_KEY = "blog:comments:";
+    public static final String BLOG_COMMENTS_DIRTY_KEY = "blog:comments:dirty";
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
+    public static final Long CACHE_BLOG_COMMENTS_TTL = 10L;
+    public static final String BLOG_UV_KEY = "blog:uv:";
+    public static final Long BLOG_UV_TTL = 3L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 30L;
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final String FEED_BIG_AUTHOR_KEY = "feed:big";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOWS_PLACEHOLDER = "0";
+    public static final String IMAGE_REF_KEY = "image:ref:";
+    public static final String IMAGE_DELETE_CHANNEL = "image:deleted";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String ID_WORKER_KEY = "id:worker:";
 }
@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/5
+ * @description RedisDelayQueue 延迟队列
+ * 任务以到期时间为score持久化在Redis的ZSET中，临近到期的任务加载进本地时间轮精确触发，
+ * 到期任务攒批后通过Lua脚本认领（认领即把score推迟到重试时间），处理成功后删除，失败或宕机则到重试时间后再次被加载
+ */
+@Slf4j
+public class RedisDelayQueue {
+
+    /**
+     * 单次从ZSET加载的最大任务数
+     */
+    private static final int LOAD_LIMIT = 5000;
+
+    /**
+     * 加载Lua脚本
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("script/delay_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    private final String key;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Consumer<List<String>> handler;
+    private final int batchSize;
+
+    /**
+     * 预加载窗口：到期时间在该窗口内的任务会被加载到时间轮
+     */
+    private final long horizonMillis;
+
+    /**
+     * 认领后处理失败（或节点宕机）时，任务重新可见的间隔，需大于预加载窗口
+     */
+    private final long retryMillis;
+
+    private final HashedWheelTimer wheel;
+    private final ScheduledExecutorService loader;
+    private final Set<String> inWheel = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<String> dueQueue = new LinkedBlockingQueue<>();
+    private Thread worker;
+    private volatile boolean running;
+
+    /**
+     * 延迟队列构造器
+     *
+     * @param key                 ZSET的key
+     * @param stringRedisTemplate redis操作
+     * @param handler             到期任务的批量处理逻辑，需保证幂等
+     * @param batchSize           每批最多处理的任务数
+     */
+    public RedisDelayQueue(String key, StringRedisTemplate stringRedisTemplate,
+                           Consumer<List<String>> handler, int batchSize) {
+        this.key = key;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.handler = handler;
+        this.batchSize = batchSize;
+        this.horizonMillis = TimeUnit.SECONDS.toMillis(15);
+        this.retryMillis = TimeUnit.SECONDS.toMillis(60);
+        // 时间轮：100ms一格，512格
+        this.wheel = new HashedWheelTimer(new DefaultThreadFactory("delay-wheel-" + key, true),
+                100, TimeUnit.MILLISECONDS, 512);
+        this.loader = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("delay-loader-" + key, true));
+    }
+
+    /**
+     * 添加延迟任务
+     *
+     * @param member 任务标识
+     * @param delay  延迟时间
+     * @param unit   单位
+     */
+    public void add(String member, long delay, TimeUnit unit) {
+        long dueAt = System.currentTimeMillis() + unit.toMillis(delay);
+        stringRedisTemplate.opsForZSet().add(key, member, dueAt);
+        if (unit.toMillis(delay) <= horizonMillis) {
+            scheduleLocal(member, dueAt);
+        }
+    }
+
+    /**
+     * 移除延迟任务，已进入时间轮的任务会在认领时被忽略
+     */
+    public void remove(String member) {
+        stringRedisTemplate.opsForZSet().remove(key, member);
+    }
+
+    public void start() {
+        running = true;
+        wheel.start();
+        long interval = horizonMillis / 3;
+        loader.scheduleWithFixedDelay(this::load, 0, interval, TimeUnit.MILLISECONDS);
+        worker = new Thread(this::runWorker, "delay-worker-" + key);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        loader.shutdownNow();
+        wheel.stop();
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * 加载预加载窗口内到期的任务到时间轮
+     */
+    private void load() {
+        try {
+            long now = System.currentTimeMillis();
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(key, 0, now + horizonMillis, 0, LOAD_LIMIT);
+            if (tuples == null) {
+                return;
+            }
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (tuple.getValue() != null && tuple.getScore() != null) {
+                    scheduleLocal(tuple.getValue(), tuple.getScore().longValue());
+                }
+            }
+        } catch (Exception e) {
+            log.error("加载延迟任务失败: {}", key, e);
+        }
+    }
+
+    private void scheduleLocal(String member, long dueAt) {
+        if (!inWheel.add(member)) {
+            return;
+        }
+        long delay = Math.max(0, dueAt - System.currentTimeMillis());
+        wheel.newTimeout(timeout -> dueQueue.offer(member), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 到期任务攒批处理
+     */
+    private void runWorker() {
+        while (running) {
+            try {
+                String first = dueQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<String> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                dueQueue.drainTo(batch, batchSize - 1);
+                batch.forEach(inWheel::remove);
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("处理延迟任务失败: {}", key, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void process(List<String> batch) {
+        long now = System.currentTimeMillis();
+        List<Object> args = new ArrayList<>(batch.size() + 2);
+        args.add(String.valueOf(now));
+        args.add(String.valueOf(now + retryMillis));
+        args.addAll(batch);
+        // 认领已到期且仍在队列中的任务，多节点下同一任务只会被一个节点认领
+        List<String> claimed = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                Collections.singletonList(key), args.toArray());
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        try {
+            handler.accept(claimed);
+            stringRedisTemplate.opsForZSet().remove(key, claimed.toArray());
+        } catch (Exception e) {
+            log.error("延迟任务处理失败，{}ms后重试: {}", retryMillis, claimed, e);
+        }
+    }
+}
@@ -1,18 +1,37 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.RandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author MoFany-J
  * @date 2023/3/9
  * @description RedisIdWorker 基于redis自增的id生成策略实现
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -29,24 +48,388 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    /**
+     * 日期格式，日期以冒号为分隔符，这样存储在Redis中便于按年月日分别统计
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    /**
+     * 号段剩余量低于该比例时异步预取下一号段
+     */
+    private static final double PREFETCH_RATIO = 0.2;
+
+    /**
+     * 雪花模式：机器id位数
+     */
+    private static final int WORKER_ID_BITS = 10;
+
+    /**
+     * 雪花模式：毫秒内序列号位数
+     */
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    /**
+     * 雪花模式：允许等待追平的最大时钟回拨毫秒数，超过则拒绝生成
+     */
+    private static final long MAX_BACKWARD_MILLIS = 5;
+
+    /**
+     * 机器id租约有效期与心跳间隔，秒
+     */
+    private static final long WORKER_LEASE_TTL = 30;
+    private static final long WORKER_HEARTBEAT_INTERVAL = 10;
+
+    /**
+     * 当前实例标识，作为机器id租约的持有者
+     */
+    private static final String INSTANCE_ID = UUID.randomUUID().toString(true);
+
+    /**
+     * 租约续期脚本，只续期自己持有的租约
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    /**
+     * 租约释放脚本，复用锁释放脚本，只删除自己持有的租约
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("script/renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("script/unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 生成模式：incr 每个id一次INCR；segment 一次INCRBY预留一个号段，本地分配；
+     * snowflake 时间戳+机器id+序列号完全在本地生成，只有机器id租约依赖Redis
+     */
+    @Value("${hmdp.id-worker.mode:incr}")
+    private String mode;
+
+    /**
+     * 号段模式下每次向Redis预留的序列号个数
+     */
+    @Value("${hmdp.id-worker.segment-step:1000}")
+    private long segmentStep;
+
+    /**
+     * 号段缓冲，key为Redis中的自增key（业务前缀+日期）
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 后台线程：号段预取、机器id租约心跳
+     */
+    private final ScheduledExecutorService backgroundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-worker-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 雪花模式：租约得到的机器id，-1表示未持有
+     */
+    private volatile long workerId = -1;
+
+    /**
+     * 雪花模式：租约在本地视角下的到期时间，超过后即使Redis不可用也不再生成id
+     */
+    private volatile long leaseExpireAt;
+
+    /**
+     * 雪花模式：上次生成id的毫秒时间戳与毫秒内序列号，由synchronized保护
+     */
+    private long lastMillis = -1;
+    private long sequence;
+
+    /**
+     * 缓存的当天日期串，避免每次调用都格式化日期
+     */
+    private volatile CachedDate cachedDate = new CachedDate(LocalDate.MIN, "");
+
     /**
      * 返回id
      *
      * @param keyPrefix 不同业务的key前缀
      */
     public long nextId(String keyPrefix) {
+        if (isSnowflake()) {
+            return nextSnowflakeId();
+        }
         LocalDateTime nowDateTime = LocalDateTime.now();
         long currentTimestamp = nowDateTime.toEpochSecond(ZoneOffset.UTC);
         // 生成时间戳
         long timestamp = currentTimestamp - BEGIN_TIMESTAMP;
-        // 生成序列号，日期以冒号为分隔符，这样存储在Redis中便于按年月日分别统计
-        String nowDate = nowDateTime.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        String key = "icr:" + keyPrefix + ":" + nowDate;
-        // 自增长key，单个key自增长上限为：2^6
-        Long increment = stringRedisTemplate.opsForValue().increment(key);
+        // 生成序列号
+        String prefixKey = "icr:" + keyPrefix + ":";
+        String key = prefixKey + formatDate(nowDateTime.toLocalDate());
+        long increment = "segment".equalsIgnoreCase(mode) ? nextSequence(prefixKey, key) : incrementSequence(key);
         // long类型拼接并返回
         long GloballyUniqueId = timestamp << COUNT_BITS | increment;
         // 全局唯一id格式：符号位1bit + 时间戳31bit + 序列号32bit
         return GloballyUniqueId;
     }
+
+    /**
+     * 每个id一次INCR
+     */
+    private long incrementSequence(String key) {
+        // 自增长key，单个key自增长上限为：2^32
+        Long increment = stringRedisTemplate.opsForValue().increment(key);
+        if (increment == null) {
+            throw new IllegalStateException("生成序列号失败: " + key);
+        }
+        return increment;
+    }
+
+    /**
+     * 号段模式：从本地号段中无锁分配序列号，号段耗尽时才访问Redis
+     */
+    private long nextSequence(String prefixKey, String key) {
+        SegmentBuffer buffer = buffers.get(key);
+        if (buffer == null) {
+            // 日期切换，清理同一业务前一天的号段
+            buffers.keySet().removeIf(old -> old.startsWith(prefixKey) && !old.equals(key));
+            buffer = buffers.computeIfAbsent(key, k -> new SegmentBuffer(fetchSegment(k)));
+        }
+        while (true) {
+            Segment segment = buffer.current;
+            long sequence = segment.cursor.getAndIncrement();
+            if (sequence <= segment.max) {
+                // 剩余量不足时提前异步加载下一号段
+                if (segment.max - sequence < segment.step * PREFETCH_RATIO) {
+                    prefetch(key, buffer);
+                }
+                return sequence;
+            }
+            // 当前号段已耗尽，切换号段
+            switchSegment(key, buffer, segment);
+        }
+    }
+
+    /**
+     * 切换到下一号段，只有号段耗尽的线程会进入
+     */
+    private void switchSegment(String key, SegmentBuffer buffer, Segment exhausted) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其他线程已完成切换
+                return;
+            }
+            Segment next = buffer.next.getAndSet(null);
+            if (next == null) {
+                // 预取未完成，同步加载
+                log.debug("号段预取未就绪，同步加载: {}", key);
+                next = fetchSegment(key);
+            }
+            buffer.current = next;
+        }
+    }
+
+    /**
+     * 异步预取下一号段
+     */
+    private void prefetch(String key, SegmentBuffer buffer) {
+        if (buffer.next.get() != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        backgroundExecutor.execute(() -> {
+            try {
+                buffer.next.compareAndSet(null, fetchSegment(key));
+            } catch (Exception e) {
+                log.error("号段预取失败: {}", key, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 通过一次INCRBY向Redis预留一个号段
+     */
+    private Segment fetchSegment(String key) {
+        Long max = stringRedisTemplate.opsForValue().increment(key, segmentStep);
+        if (max == null) {
+            throw new IllegalStateException("获取号段失败: " + key);
+        }
+        return new Segment(max, segmentStep);
+    }
+
+    /**
+     * 格式化日期，同一天内复用上次的结果
+     */
+    private String formatDate(LocalDate date) {
+        CachedDate cached = cachedDate;
+        if (!cached.date.equals(date)) {
+            cached = new CachedDate(date, date.format(DATE_FORMATTER));
+            cachedDate = cached;
+        }
+        return cached.text;
+    }
+
+    private boolean isSnowflake() {
+        return "snowflake".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 雪花模式：符号位1bit + 毫秒时间戳41bit + 机器id10bit + 序列号12bit
+     */
+    private synchronized long nextSnowflakeId() {
+        long currentWorkerId = workerId;
+        if (currentWorkerId < 0 || System.currentTimeMillis() >= leaseExpireAt) {
+            throw new IllegalStateException("未持有有效的机器id租约");
+        }
+        long millis = currentMillis();
+        if (millis < lastMillis) {
+            // 时钟回拨，小幅回拨等待追平，否则拒绝生成
+            long offset = lastMillis - millis;
+            if (offset > MAX_BACKWARD_MILLIS) {
+                throw new IllegalStateException("时钟回拨" + offset + "ms，拒绝生成id");
+            }
+            millis = waitUntilAfter(lastMillis - 1);
+        }
+        if (millis == lastMillis) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                // 当前毫秒序列号用尽，等待下一毫秒
+                millis = waitUntilAfter(lastMillis);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = millis;
+        return millis << (WORKER_ID_BITS + SEQUENCE_BITS) | currentWorkerId << SEQUENCE_BITS | sequence;
+    }
+
+    private static long currentMillis() {
+        return System.currentTimeMillis() - BEGIN_TIMESTAMP * 1000;
+    }
+
+    private static long waitUntilAfter(long millis) {
+        long current = currentMillis();
+        while (current <= millis) {
+            Thread.onSpinWait();
+            current = currentMillis();
+        }
+        return current;
+    }
+
+    /**
+     * 雪花模式启动时租用机器id，并定时心跳续期
+     */
+    @PostConstruct
+    public void init() {
+        if (!isSnowflake()) {
+            return;
+        }
+        leaseWorkerId();
+        backgroundExecutor.scheduleAtFixedRate(this::renewWorkerId,
+                WORKER_HEARTBEAT_INTERVAL, WORKER_HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 从随机位置开始依次尝试SETNX，得到一个空闲的机器id
+     */
+    private void leaseWorkerId() {
+        long start = RandomUtil.randomLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long candidate = (start + i) & MAX_WORKER_ID;
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(
+                    RedisConstants.ID_WORKER_KEY + candidate, INSTANCE_ID, WORKER_LEASE_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseExpireAt = now + TimeUnit.SECONDS.toMillis(WORKER_LEASE_TTL);
+                workerId = candidate;
+                log.info("租用机器id成功: {}", candidate);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的机器id");
+    }
+
+    /**
+     * 心跳续期，租约丢失时重新租用
+     */
+    private void renewWorkerId() {
+        try {
+            long current = workerId;
+            if (current >= 0) {
+                long now = System.currentTimeMillis();
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                        Collections.singletonList(RedisConstants.ID_WORKER_KEY + current),
+                        INSTANCE_ID, String.valueOf(WORKER_LEASE_TTL));
+                if (renewed != null && renewed == 1) {
+                    leaseExpireAt = now + TimeUnit.SECONDS.toMillis(WORKER_LEASE_TTL);
+                    return;
+                }
+                log.warn("机器id租约已丢失: {}", current);
+                workerId = -1;
+            }
+            leaseWorkerId();
+        } catch (Exception e) {
+            // Redis不可用时继续使用到本地租约到期为止
+            log.error("机器id租约续期失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        backgroundExecutor.shutdownNow();
+        long current = workerId;
+        if (current >= 0) {
+            workerId = -1;
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT,
+                        Collections.singletonList(RedisConstants.ID_WORKER_KEY + current), INSTANCE_ID);
+            } catch (Exception e) {
+                log.warn("释放机器id租约失败，等待自动过期: {}", current, e);
+            }
+        }
+    }
+
+    /**
+     * 号段：[max - step + 1, max]
+     */
+    private static final class Segment {
+        private final AtomicLong cursor;
+        private final long max;
+        private final long step;
+
+        private Segment(long max, long step) {
+            this.cursor = new AtomicLong(max - step + 1);
+            this.max = max;
+            this.step = step;
+        }
+    }
+
+    /**
+     * 双号段缓冲：当前号段 + 预取号段
+     */
+    private static final class SegmentBuffer {
+        private volatile Segment current;
+        private final AtomicReference<Segment> next = new AtomicReference<>();
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        private SegmentBuffer(Segment current) {
+            this.current = current;
+        }
+    }
+
+    private static final class CachedDate {
+        private final LocalDate date;
+        private final String text;
+
+        private CachedDate(LocalDate date, String text) {
+            this.date = date;
+            this.text = text;
+        }
+    }
 }
@@ -1,29 +1,25 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author MoFany-J
  * @date 2023/3/6
  * @description RefreshTokenInterceptor 刷新token拦截器
+ * 登录用户先查本节点缓存，token有效期在剩余时间不足时才续期，见 {@link SessionCache}
  */
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
 
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionCache sessionCache;
 
-    public RefreshTokenInterceptor(StringRedisTemplate redisTemplate) {
-        this.stringRedisTemplate = redisTemplate;
+    public RefreshTokenInterceptor(SessionCache sessionCache) {
+        this.sessionCache = sessionCache;
     }
 
     /**
@@ -36,20 +32,15 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2.基于token获取redis中的用户
-        String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        // 2.基于token获取用户，按需刷新token有效期
+        UserDTO userDTO = sessionCache.get(token);
         // 3.判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
-        // 5.将查询到的Hash数据转换为UserDTO
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        // 6.存在则保存用户信息到 ThreadLocal
+        // 4.存在则保存用户信息到 ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 7.刷新token有效期，30分钟
-        stringRedisTemplate.expire(key, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 8.放行
+        // 5.放行
         return true;
     }
 
@@ -62,4 +53,12 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         UserHolder.removeUser();
     }
 
+    /**
+     * 异步请求（如长轮询）开始后当前线程不会执行afterCompletion，在此移除用户
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
+
 }
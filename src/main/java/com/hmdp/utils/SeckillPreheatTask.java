@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/8
+ * @description SeckillPreheatTask 秒杀开始前的定时预热
+ * 补齐通过SQL直接导入、或redis数据丢失的秒杀券，预热本身是幂等的，多节点同时执行无影响
+ */
+@Slf4j
+@Component
+public class SeckillPreheatTask {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    /**
+     * 秒杀开始前多少分钟预热
+     */
+    @Value("${hmdp.seckill.preheat-ahead:10}")
+    private long preheatAhead;
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.preheat-interval:60000}")
+    public void preheat() {
+        try {
+            int count = seckillVoucherService.preheatUpcoming(preheatAhead);
+            log.debug("秒杀券预热完成，共{}张", count);
+        } catch (Exception e) {
+            log.error("秒杀券预热失败", e);
+        }
+    }
+}
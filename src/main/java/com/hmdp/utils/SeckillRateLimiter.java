@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_USER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_VOUCHER_KEY;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/3
+ * @description SeckillRateLimiter 秒杀下单限流器，按用户、按优惠券两个维度的令牌桶
+ * 先经过本地令牌桶预过滤，本地放行后再由Redis中的Lua脚本做全局原子校验
+ */
+@Slf4j
+@Component
+public class SeckillRateLimiter {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每个用户每秒令牌数与桶容量
+     */
+    @Value("${hmdp.seckill.rate-limit.user-rate:1}")
+    private double userRate;
+    @Value("${hmdp.seckill.rate-limit.user-burst:3}")
+    private double userBurst;
+
+    /**
+     * 每张优惠券每秒令牌数与桶容量
+     */
+    @Value("${hmdp.seckill.rate-limit.voucher-rate:2000}")
+    private double voucherRate;
+    @Value("${hmdp.seckill.rate-limit.voucher-burst:4000}")
+    private double voucherBurst;
+
+    /**
+     * 加载Lua脚本
+     */
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("script/rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 本地令牌桶，单节点收到的请求数不会超过全局，所以本地拒绝的请求全局一定也会拒绝
+     */
+    private final Cache<String, LocalTokenBucket> localBuckets = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .build();
+
+    private Counter allowedCounter;
+    private Counter localRejectedCounter;
+    private Counter userRejectedCounter;
+    private Counter voucherRejectedCounter;
+    private Counter redisErrorCounter;
+
+    @PostConstruct
+    public void init() {
+        String name = "seckill.rate.limit";
+        allowedCounter = meterRegistry.counter(name, "result", "allowed");
+        localRejectedCounter = meterRegistry.counter(name, "result", "local_rejected");
+        userRejectedCounter = meterRegistry.counter(name, "result", "user_rejected");
+        voucherRejectedCounter = meterRegistry.counter(name, "result", "voucher_rejected");
+        redisErrorCounter = meterRegistry.counter(name, "result", "redis_error");
+        meterRegistry.gauge("seckill.rate.limit.local.buckets", localBuckets, Cache::estimatedSize);
+    }
+
+    /**
+     * 尝试获取一次下单许可
+     *
+     * @param subject   限流主体，登录用户的id
+     * @param voucherId 优惠券id
+     * @return true代表放行，false代表被限流
+     */
+    public boolean tryAcquire(String subject, String voucherId) {
+        // 本地预过滤，被拒绝的请求不访问Redis
+        if (!localBucket("user:" + subject, userRate, userBurst).tryAcquire()
+                || !localBucket("voucher:" + voucherId, voucherRate, voucherBurst).tryAcquire()) {
+            localRejectedCounter.increment();
+            return false;
+        }
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT,
+                    Arrays.asList(SECKILL_LIMIT_USER_KEY + subject, SECKILL_LIMIT_VOUCHER_KEY + voucherId),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(userRate), String.valueOf(userBurst),
+                    String.valueOf(voucherRate), String.valueOf(voucherBurst));
+        } catch (Exception e) {
+            // Redis不可用时只依靠本地限流，不阻断下单
+            log.error("限流脚本执行失败", e);
+            redisErrorCounter.increment();
+            return true;
+        }
+        if (result == null || result == 0) {
+            allowedCounter.increment();
+            return true;
+        }
+        if (result == 1) {
+            userRejectedCounter.increment();
+        } else {
+            voucherRejectedCounter.increment();
+        }
+        return false;
+    }
+
+    private LocalTokenBucket localBucket(String key, double rate, double burst) {
+        return localBuckets.get(key, k -> new LocalTokenBucket(rate, burst));
+    }
+
+    /**
+     * 本地令牌桶
+     */
+    private static final class LocalTokenBucket {
+        private final double rate;
+        private final double burst;
+        private double tokens;
+        private long lastNanos;
+
+        private LocalTokenBucket(double rate, double burst) {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.lastNanos = System.nanoTime();
+        }
+
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.QueueStatusDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/9
+ * @description SeckillWaitingRoom 秒杀排队室
+ * 秒杀开始前后用户先取号，号码保存在Redis的ZSET中；放行进度按时间计算：
+ * 开始时放行 initial 个号码，之后每秒放行 rate 个，各节点计算结果一致，无需协调。
+ * 号码一经发放不再变化，状态查询只在首次访问Redis，之后由本地缓存应答
+ */
+@Component
+public class SeckillWaitingRoom {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    /**
+     * 是否开启排队，关闭时所有请求直接进入下单
+     */
+    @Value("${hmdp.seckill.waiting-room.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 秒杀开始前多少分钟开始取号
+     */
+    @Value("${hmdp.seckill.waiting-room.open-ahead:10}")
+    private long openAhead;
+
+    /**
+     * 秒杀开始时放行的号码数
+     */
+    @Value("${hmdp.seckill.waiting-room.initial:200}")
+    private long initial;
+
+    /**
+     * 每秒放行的号码数
+     */
+    @Value("${hmdp.seckill.waiting-room.rate:500}")
+    private long rate;
+
+    /**
+     * 加载Lua脚本
+     */
+    private static final DefaultRedisScript<Long> TICKET_SCRIPT;
+
+    static {
+        TICKET_SCRIPT = new DefaultRedisScript<>();
+        TICKET_SCRIPT.setLocation(new ClassPathResource("script/queue_ticket.lua"));
+        TICKET_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 本地缓存用户号码，key为 voucherId:userId
+     */
+    private final Cache<String, Long> tickets = Caffeine.newBuilder()
+            .maximumSize(200_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 本地缓存秒杀券信息，放行进度只依赖开始时间
+     */
+    private final Cache<Long, SeckillVoucher> vouchers = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 取号，重复取号返回原号码
+     *
+     * @return 排队状态
+     */
+    public Result enqueue(Long voucherId, Long userId) {
+        SeckillVoucher voucher = voucher(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在!");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (now.isBefore(voucher.getBeginTime().minusMinutes(openAhead))) {
+            return Result.fail("尚未开始排队!");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀已经结束!");
+        }
+        String key = voucherId + ":" + userId;
+        Long ticket = tickets.getIfPresent(key);
+        if (ticket == null) {
+            long expireAt = voucher.getEndTime().plusDays(1).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            ticket = stringRedisTemplate.execute(TICKET_SCRIPT,
+                    Arrays.asList(SECKILL_QUEUE_KEY + voucherId, SECKILL_QUEUE_SEQ_KEY + voucherId,
+                            SECKILL_STOCK_KEY + voucherId),
+                    userId.toString(), String.valueOf(expireAt));
+            if (ticket == null || ticket < 0) {
+                return Result.fail("库存不足!");
+            }
+            tickets.put(key, ticket);
+        }
+        return Result.ok(toStatus(voucher, ticket));
+    }
+
+    /**
+     * 查询排队状态，供客户端轮询
+     *
+     * @return 排队状态
+     */
+    public Result status(Long voucherId, Long userId) {
+        SeckillVoucher voucher = voucher(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在!");
+        }
+        Long ticket = ticket(voucherId, userId);
+        if (ticket == null) {
+            return Result.fail("尚未排队!");
+        }
+        return Result.ok(toStatus(voucher, ticket));
+    }
+
+    /**
+     * 判断用户是否已被放行下单
+     */
+    public boolean isAdmitted(SeckillVoucher voucher, Long userId) {
+        if (!enabled) {
+            return true;
+        }
+        Long ticket = ticket(voucher.getVoucherId(), userId);
+        return ticket != null && ticket <= admittedCount(voucher);
+    }
+
+    /**
+     * 当前已放行的号码数
+     */
+    private long admittedCount(SeckillVoucher voucher) {
+        long elapsed = Duration.between(voucher.getBeginTime(), LocalDateTime.now()).toMillis();
+        if (elapsed < 0) {
+            return 0;
+        }
+        return initial + elapsed * rate / 1000;
+    }
+
+    private QueueStatusDTO toStatus(SeckillVoucher voucher, long ticket) {
+        long admittedCount = admittedCount(voucher);
+        QueueStatusDTO status = new QueueStatusDTO();
+        status.setTicket(ticket);
+        status.setAdmitted(ticket <= admittedCount);
+        if (status.getAdmitted()) {
+            status.setAhead(0L);
+            status.setWaitSeconds(0L);
+            return status;
+        }
+        // 未开始时按开始时刻的放行数估算
+        long untilBegin = Math.max(0, Duration.between(LocalDateTime.now(), voucher.getBeginTime()).getSeconds());
+        long waiting = ticket - Math.max(admittedCount, initial);
+        status.setAhead(ticket - admittedCount - 1);
+        status.setWaitSeconds(untilBegin + waiting / Math.max(1, rate) + 1);
+        return status;
+    }
+
+    private Long ticket(Long voucherId, Long userId) {
+        return tickets.get(voucherId + ":" + userId, key -> {
+            Double score = stringRedisTemplate.opsForZSet().score(SECKILL_QUEUE_KEY + voucherId, userId.toString());
+            return score == null ? null : score.longValue();
+        });
+    }
+
+    private SeckillVoucher voucher(Long voucherId) {
+        return vouchers.get(voucherId, seckillVoucherService::querySeckillVoucher);
+    }
+}
@@ -0,0 +1,244 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/20
+ * @description SessionCache 登录用户的本节点缓存
+ * 每个请求都要根据token解析登录用户，本节点缓存几秒，过期后一次Lua调用读取用户并按需续期：
+ * 剩余有效期低于阈值时才续期，活跃用户不再每个请求都写一次Redis。
+ * 登出、修改资料时更新Redis中的用户并发布消息，各节点收到后清除本地缓存；消息丢失时最多延迟一个本地缓存周期。
+ * 签名token模式（hmdp.session.mode=signed）下登录签发 {@link TokenSigner} 的自包含token，校验不访问Redis；
+ * 签名token中携带登录时的昵称、头像，修改资料后直到token过期或重新登录前仍是旧资料；
+ * 两种token可同时使用，切换模式时已登录的用户不受影响
+ */
+@Slf4j
+@Component
+public class SessionCache implements MessageListener {
+
+    public static final String MODE_REDIS = "redis";
+    public static final String MODE_SIGNED = "signed";
+
+    /**
+     * 登录有效期，与登录时设置的一致
+     */
+    private static final long SESSION_TTL = TimeUnit.MINUTES.toMillis(CACHE_SHOP_TTL);
+
+    /**
+     * 不存在的token也缓存，防止伪造的token反复查询Redis
+     */
+    private static final UserDTO ABSENT = new UserDTO();
+
+    /**
+     * 加载Lua脚本
+     */
+    private static final DefaultRedisScript<List> LOAD_SCRIPT;
+
+    static {
+        LOAD_SCRIPT = new DefaultRedisScript<>();
+        LOAD_SCRIPT.setLocation(new ClassPathResource("script/session_load.lua"));
+        LOAD_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 修改资料Lua脚本
+     */
+    private static final DefaultRedisScript<Long> REFRESH_SCRIPT;
+
+    static {
+        REFRESH_SCRIPT = new DefaultRedisScript<>();
+        REFRESH_SCRIPT.setLocation(new ClassPathResource("script/session_refresh.lua"));
+        REFRESH_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private TokenSigner tokenSigner;
+
+    @Resource
+    private TokenDenyList tokenDenyList;
+
+    /**
+     * 登录方式：redis 在Redis中保存登录用户；signed 签发签名token
+     */
+    @Value("${hmdp.session.mode:" + MODE_REDIS + "}")
+    private String mode;
+
+    /**
+     * 剩余有效期低于该值时续期，分钟
+     */
+    @Value("${hmdp.session.renew-threshold:20}")
+    private long renewThreshold;
+
+    /**
+     * 本节点缓存时间，秒
+     */
+    @Value("${hmdp.session.local-ttl:5}")
+    private long localTtl;
+
+    private Cache<String, UserDTO> sessions;
+
+    @PostConstruct
+    public void init() {
+        sessions = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(localTtl, TimeUnit.SECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+    }
+
+    /**
+     * 登录，返回token
+     */
+    public String create(UserDTO user) {
+        if (MODE_SIGNED.equals(mode)) {
+            return tokenSigner.issue(user).getToken();
+        }
+        String token = UUID.randomUUID().toString(true);
+        String tokenKey = LOGIN_USER_KEY + token;
+        Map<String, String> userMap = new HashMap<>(4);
+        userMap.put("id", user.getId().toString());
+        userMap.put("nickName", StrUtil.nullToEmpty(user.getNickName()));
+        userMap.put("icon", StrUtil.nullToEmpty(user.getIcon()));
+        // 保存用户信息并设置有效期，一次pipeline写入
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.hMSet(tokenKey, userMap);
+            stringConnection.pExpire(tokenKey, SESSION_TTL);
+            return null;
+        });
+        return token;
+    }
+
+    /**
+     * 根据token获取登录用户
+     *
+     * @return 未登录或已过期时返回null
+     */
+    public UserDTO get(String token) {
+        if (TokenSigner.isSigned(token)) {
+            // 签名token本地校验，只有布隆过滤器命中时才查询Redis
+            TokenSigner.SignedToken signed = tokenSigner.verify(token);
+            return signed == null || tokenDenyList.isDenied(signed.getTokenId()) ? null : signed.getUser();
+        }
+        UserDTO user = sessions.get(token, this::load);
+        if (user == null || user == ABSENT) {
+            return null;
+        }
+        // 缓存中的对象各请求共用，返回副本
+        UserDTO copy = new UserDTO();
+        copy.setId(user.getId());
+        copy.setNickName(user.getNickName());
+        copy.setIcon(user.getIcon());
+        return copy;
+    }
+
+    /**
+     * 登出，通知所有节点清除缓存
+     */
+    public void invalidate(String token) {
+        if (TokenSigner.isSigned(token)) {
+            TokenSigner.SignedToken signed = tokenSigner.verify(token);
+            if (signed != null) {
+                tokenDenyList.deny(signed.getTokenId(), signed.getExpireAt());
+            }
+            return;
+        }
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        sessions.invalidate(token);
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    /**
+     * 修改资料后更新该token的登录用户，通知所有节点清除缓存。
+     * 签名token自带资料无法修改，直到过期前仍返回旧资料
+     */
+    public void refresh(String token, UserDTO user) {
+        if (TokenSigner.isSigned(token)) {
+            return;
+        }
+        List<String> fields = new ArrayList<>(4);
+        if (user.getNickName() != null) {
+            fields.add("nickName");
+            fields.add(user.getNickName());
+        }
+        if (user.getIcon() != null) {
+            fields.add("icon");
+            fields.add(user.getIcon());
+        }
+        if (fields.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.execute(REFRESH_SCRIPT, Collections.singletonList(LOGIN_USER_KEY + token), fields.toArray());
+        sessions.invalidate(token);
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        sessions.invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private UserDTO load(String token) {
+        List<Object> result = stringRedisTemplate.execute(LOAD_SCRIPT,
+                Collections.singletonList(LOGIN_USER_KEY + token),
+                String.valueOf(TimeUnit.MINUTES.toMillis(renewThreshold)), String.valueOf(SESSION_TTL));
+        if (result == null || result.isEmpty()) {
+            return ABSENT;
+        }
+        // 第一个元素为剩余有效期，其后为Hash的字段和值
+        UserDTO user = new UserDTO();
+        for (int i = 1; i + 1 < result.size(); i += 2) {
+            String value = (String) result.get(i + 1);
+            switch ((String) result.get(i)) {
+                case "id":
+                    user.setId(Long.valueOf(value));
+                    break;
+                case "nickName":
+                    user.setNickName(value);
+                    break;
+                case "icon":
+                    user.setIcon(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return user.getId() == null ? ABSENT : user;
+    }
+}
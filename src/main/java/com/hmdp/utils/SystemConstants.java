@@ -5,4 +5,8 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    /**
+     * 请求处理异常的标记，异常由全局异常处理转换为 Result.fail 后响应状态仍为200，拦截器据此判断请求是否失败
+     */
+    public static final String REQUEST_FAILED_ATTRIBUTE = "hmdp.request.failed";
 }
@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_DENY_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_DENY_KEY;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/21
+ * @description TokenDenyList 已吊销的签名token
+ * 吊销的token编号存在ZSET中，分数为token的过期时间，过期后即可移除，名单只包含登出后尚未过期的token。
+ * 各节点在内存中维护名单的布隆过滤器：绝大多数请求的token不在过滤器中，无需访问Redis；
+ * 命中时再查Redis确认并缓存结果。新吊销的token通过发布订阅立即加入各节点的过滤器，并定时从Redis重建
+ */
+@Slf4j
+@Component
+public class TokenDenyList implements MessageListener {
+
+    /**
+     * 重建时按名单大小的倍数预留容量，避免两次重建之间新增的编号推高误判率
+     */
+    private static final int CAPACITY_FACTOR = 2;
+    private static final int MIN_CAPACITY = 1024;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private volatile BloomFilter filter = new BloomFilter(MIN_CAPACITY);
+
+    /**
+     * 重建期间新吊销的编号，重建完成后补进新的过滤器
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 过滤器命中后向Redis确认的结果
+     */
+    private final Cache<String, Boolean> confirmed = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_DENY_CHANNEL));
+        rebuild();
+    }
+
+    /**
+     * 吊销token
+     *
+     * @param tokenId  token编号
+     * @param expireAt token的过期时间，毫秒
+     */
+    public void deny(String tokenId, long expireAt) {
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENY_KEY, tokenId, expireAt);
+        add(tokenId);
+        stringRedisTemplate.convertAndSend(LOGIN_DENY_CHANNEL, tokenId);
+    }
+
+    /**
+     * 是否已吊销，Redis不可用时对过滤器命中的token按已吊销处理，该结果不缓存，Redis恢复后立即重新确认
+     */
+    public boolean isDenied(String tokenId) {
+        if (!filter.mightContain(tokenId)) {
+            return false;
+        }
+        Boolean cached = confirmed.getIfPresent(tokenId);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            boolean denied = stringRedisTemplate.opsForZSet().score(LOGIN_DENY_KEY, tokenId) != null;
+            confirmed.put(tokenId, denied);
+            return denied;
+        } catch (Exception e) {
+            log.warn("查询token吊销名单失败: {}", tokenId, e);
+            return true;
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        add(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void add(String tokenId) {
+        pending.add(tokenId);
+        filter.add(tokenId);
+        confirmed.invalidate(tokenId);
+    }
+
+    /**
+     * 移除已过期的编号，按Redis中的名单重建过滤器
+     */
+    @Scheduled(fixedDelayString = "${hmdp.session.deny-refresh-interval:30000}")
+    public void rebuild() {
+        try {
+            pending.clear();
+            long now = System.currentTimeMillis();
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_DENY_KEY, 0, now);
+            Set<String> ids = stringRedisTemplate.opsForZSet().rangeByScore(LOGIN_DENY_KEY, now, Double.MAX_VALUE);
+            int size = ids == null ? 0 : ids.size();
+            BloomFilter rebuilt = new BloomFilter(Math.max(MIN_CAPACITY, size * CAPACITY_FACTOR));
+            if (ids != null) {
+                ids.forEach(rebuilt::add);
+            }
+            pending.forEach(rebuilt::add);
+            filter = rebuilt;
+            // 替换前的瞬间加入旧过滤器的编号
+            pending.forEach(rebuilt::add);
+        } catch (Exception e) {
+            log.error("重建token吊销名单失败", e);
+        }
+    }
+
+    /**
+     * 布隆过滤器，误判率约1%，双重哈希生成各位置，位数组无锁并发读写
+     */
+    private static final class BloomFilter {
+        private static final int HASHES = 7;
+
+        private final AtomicLongArray words;
+        private final long size;
+
+        private BloomFilter(int capacity) {
+            // 误判率1%时每个元素约需9.6位
+            this.size = capacity * 10L;
+            this.words = new AtomicLongArray((int) ((size + 63) / 64));
+        }
+
+        void add(String value) {
+            long[] hash = hash(value);
+            for (int i = 0; i < HASHES; i++) {
+                long index = index(hash, i);
+                long mask = 1L << index;
+                words.getAndAccumulate((int) (index >>> 6), mask, (word, bit) -> word | bit);
+            }
+        }
+
+        boolean mightContain(String value) {
+            long[] hash = hash(value);
+            for (int i = 0; i < HASHES; i++) {
+                long index = index(hash, i);
+                if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long[] hash(String value) {
+            return MurmurHash.hash128(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private long index(long[] hash, int i) {
+            return Math.floorMod(hash[0] + i * hash[1], size);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONException;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/21
+ * @description TokenSigner 自包含的签名token
+ * 格式为 Base64Url(载荷).Base64Url(HMAC-SHA256签名)，载荷中带有用户id、昵称、头像、过期时间和token编号，
+ * 校验只需本地计算一次签名，不访问Redis；token无法修改，登出通过 {@link TokenDenyList} 按编号吊销
+ */
+@Slf4j
+@Component
+public class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * 密钥最短长度，字节
+     */
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * 签名密钥，集群内各节点必须一致；为空时不能签发和校验签名token
+     */
+    @Value("${hmdp.session.secret:}")
+    private String secret;
+
+    /**
+     * 签名token的有效期，分钟
+     */
+    @Value("${hmdp.session.signed-ttl:1440}")
+    private long signedTtl;
+
+    @Value("${hmdp.session.mode:redis}")
+    private String mode;
+
+    /**
+     * Mac不是线程安全的，每个线程复用一个
+     */
+    private ThreadLocal<Mac> macs;
+
+    @PostConstruct
+    public void init() {
+        if (StrUtil.isBlank(secret)) {
+            if (SessionCache.MODE_SIGNED.equals(mode)) {
+                throw new IllegalStateException("签名token模式需要配置 hmdp.session.secret");
+            }
+            return;
+        }
+        byte[] key = secret.getBytes(StandardCharsets.UTF_8);
+        if (key.length < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException("hmdp.session.secret 长度不能少于" + MIN_SECRET_LENGTH + "字节");
+        }
+        SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 签发token
+     */
+    public SignedToken issue(UserDTO user) {
+        if (macs == null) {
+            throw new IllegalStateException("未配置 hmdp.session.secret");
+        }
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(signedTtl);
+        String tokenId = UUID.randomUUID().toString(true);
+        JSONObject payload = new JSONObject()
+                .set("id", user.getId())
+                .set("nickName", user.getNickName())
+                .set("icon", user.getIcon())
+                .set("exp", expireAt)
+                .set("jti", tokenId);
+        String body = ENCODER.encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8));
+        return new SignedToken(body + "." + ENCODER.encodeToString(sign(body)), user, tokenId, expireAt);
+    }
+
+    /**
+     * 校验签名和有效期
+     *
+     * @return 签名不正确、已过期或格式错误时返回null
+     */
+    public SignedToken verify(String token) {
+        int dot = token.indexOf('.');
+        if (macs == null || dot <= 0 || dot != token.lastIndexOf('.')) {
+            return null;
+        }
+        String body = token.substring(0, dot);
+        try {
+            // 比较签名时耗时与内容无关，防止逐字节猜测
+            if (!MessageDigest.isEqual(sign(body), DECODER.decode(token.substring(dot + 1)))) {
+                return null;
+            }
+            JSONObject payload = JSONUtil.parseObj(new String(DECODER.decode(body), StandardCharsets.UTF_8));
+            long expireAt = payload.getLong("exp", 0L);
+            String tokenId = payload.getStr("jti");
+            if (expireAt <= System.currentTimeMillis() || tokenId == null || payload.getLong("id") == null) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(payload.getLong("id"));
+            user.setNickName(payload.getStr("nickName"));
+            user.setIcon(payload.getStr("icon"));
+            return new SignedToken(token, user, tokenId, expireAt);
+        } catch (IllegalArgumentException | JSONException e) {
+            log.debug("token格式错误: {}", token);
+            return null;
+        }
+    }
+
+    public static boolean isSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    private byte[] sign(String body) {
+        return macs.get().doFinal(body.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 签名token及其中的信息
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class SignedToken {
+        private final String token;
+        private final UserDTO user;
+        private final String tokenId;
+        private final long expireAt;
+    }
+}
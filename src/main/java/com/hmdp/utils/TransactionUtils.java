@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/7
+ * @description TransactionUtils 事务相关工具
+ */
+public class TransactionUtils {
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     *
+     * @param action 要执行的逻辑，如删除缓存、写redis
+     */
+    public static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
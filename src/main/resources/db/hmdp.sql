@@ -43,6 +43,21 @@ INSERT INTO `tb_blog` VALUES (5, 1, 2, '人均30💰杭州这家港式茶餐厅
 INSERT INTO `tb_blog` VALUES (6, 10, 1, '杭州周末好去处｜💰50就可以骑马啦🐎', '/imgs/blogs/blog1.jpg', '杭州周末好去处｜💰50就可以骑马啦🐎', 1, 0, '2022-01-11 16:05:47', '2022-03-10 09:21:41');
 INSERT INTO `tb_blog` VALUES (7, 10, 1, '杭州周末好去处｜💰50就可以骑马啦🐎', '/imgs/blogs/blog1.jpg', '杭州周末好去处｜💰50就可以骑马啦🐎', 1, 0, '2022-01-11 16:05:47', '2022-03-10 09:21:42');
 
+-- ----------------------------
+-- Table structure for tb_blog_view_stats
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_blog_view_stats`;
+CREATE TABLE `tb_blog_view_stats`  (
+  `id` bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `blog_id` bigint(20) UNSIGNED NOT NULL COMMENT '探店id',
+  `stat_date` date NOT NULL COMMENT '统计日期',
+  `uv` bigint(20) UNSIGNED NOT NULL DEFAULT 0 COMMENT '当日独立访客数',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_blog_date`(`blog_id`, `stat_date`) USING BTREE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_blog_comments
 -- ----------------------------
@@ -58,13 +73,22 @@ CREATE TABLE `tb_blog_comments`  (
   `status` tinyint(1) UNSIGNED NULL DEFAULT NULL COMMENT '状态，0：正常，1：被举报，2：禁止查看',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_blog_parent_time`(`blog_id`, `parent_id`, `create_time`, `id`) USING BTREE,
+  INDEX `idx_parent_time`(`parent_id`, `create_time`, `id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
 -- Records of tb_blog_comments
 -- ----------------------------
 
+-- ----------------------------
+-- Migration for existing databases: cursor-paged comment threads
+-- 已有数据库升级执行
+-- ALTER TABLE `tb_blog_comments` ADD INDEX `idx_blog_parent_time`(`blog_id`, `parent_id`, `create_time`, `id`) USING BTREE,
+--   ADD INDEX `idx_parent_time`(`parent_id`, `create_time`, `id`) USING BTREE;
+-- ----------------------------
+
 -- ----------------------------
 -- Table structure for tb_follow
 -- ----------------------------
@@ -74,13 +98,24 @@ CREATE TABLE `tb_follow`  (
   `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '用户id',
   `follow_user_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的用户id',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_follow`(`user_id`, `follow_user_id`) USING BTREE,
+  INDEX `idx_follow_user`(`follow_user_id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
 -- Records of tb_follow
 -- ----------------------------
 
+-- ----------------------------
+-- Migration for existing databases: one follow row per user pair, fan lookups by follow_user_id
+-- 已有数据库升级：先清理重复的关注记录，再执行
+-- DELETE f1 FROM `tb_follow` f1 JOIN `tb_follow` f2
+--   ON f1.`user_id` = f2.`user_id` AND f1.`follow_user_id` = f2.`follow_user_id` AND f1.`id` > f2.`id`;
+-- ALTER TABLE `tb_follow` ADD UNIQUE INDEX `uk_user_follow`(`user_id`, `follow_user_id`) USING BTREE,
+--   ADD INDEX `idx_follow_user`(`follow_user_id`) USING BTREE;
+-- ----------------------------
+
 -- ----------------------------
 -- Table structure for tb_seckill_voucher
 -- ----------------------------
@@ -1274,11 +1309,20 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
 -- Records of tb_voucher_order
 -- ----------------------------
 
+-- ----------------------------
+-- Migration for existing databases: one order per user per voucher
+-- 已有数据库升级：先清理重复订单，再执行
+-- ALTER TABLE `tb_voucher_order` ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
+-- 已按旧名称创建过该索引的数据库改名即可：
+-- ALTER TABLE `tb_voucher_order` RENAME INDEX `uniqe_key_user_voucher` TO `uk_user_voucher`;
+-- ----------------------------
+
 SET FOREIGN_KEY_CHECKS = 1;
@@ -0,0 +1,12 @@
+---
+--- 评论数增减，计数已加载时原子增减并标记待写回；未加载时返回-1，由调用方从数据库加载
+--- KEYS[1] 评论数key  KEYS[2] 待写回集合  ARGV[1] 博文id  ARGV[2] 增减数量
+---
+
+if (redis.call('exists', KEYS[1]) == 0)
+then
+    return -1
+end
+local count = redis.call('incrby', KEYS[1], ARGV[2])
+redis.call('sadd', KEYS[2], ARGV[1])
+return count
@@ -0,0 +1,23 @@
+---
+--- 基于Lua脚本实现延迟任务认领
+--- KEYS[1] 延迟队列ZSET
+--- ARGV[1] 当前毫秒时间戳  ARGV[2] 认领后的重试时间  ARGV[3...] 待认领的任务
+--- 返回认领成功的任务
+---
+
+local key = KEYS[1]
+local now = tonumber(ARGV[1])
+local retryAt = ARGV[2]
+local claimed = {}
+
+for i = 3, #ARGV do
+    local score = redis.call('zscore', key, ARGV[i])
+    -- 仍在队列中且已到期才认领，认领即推迟到重试时间
+    if (score and tonumber(score) <= now)
+    then
+        redis.call('zadd', key, retryAt, ARGV[i])
+        table.insert(claimed, ARGV[i])
+    end
+end
+
+return claimed
@@ -0,0 +1,31 @@
+---
+--- 基于Lua脚本实现热榜分数衰减：按距上次衰减的时间把所有分数乘以衰减系数，并淘汰低分博文
+--- KEYS[1] 热榜ZSET  KEYS[2] 上次衰减时间key
+--- ARGV[1] 当前时间(毫秒)  ARGV[2] 半衰期(毫秒)  ARGV[3] 最小衰减间隔(毫秒)  ARGV[4] 保留条数  ARGV[5] 淘汰分数线
+--- 返回 衰减的博文数，未到衰减间隔返回-1
+---
+
+local now = tonumber(ARGV[1])
+local last = tonumber(redis.call('get', KEYS[2]))
+-- 首次执行只记录时间
+if (not last)
+then
+    redis.call('set', KEYS[2], now)
+    return 0
+end
+local elapsed = now - last
+if (elapsed < tonumber(ARGV[3]))
+then
+    return -1
+end
+-- 衰减系数 0.5^(经过时间/半衰期)
+local factor = 0.5 ^ (elapsed / tonumber(ARGV[2]))
+local items = redis.call('zrange', KEYS[1], 0, -1, 'WITHSCORES')
+for i = 1, #items, 2 do
+    redis.call('zadd', KEYS[1], tonumber(items[i + 1]) * factor, items[i])
+end
+-- 淘汰分数过低的博文，并只保留前N条
+redis.call('zremrangebyscore', KEYS[1], '-inf', '(' .. ARGV[5])
+redis.call('zremrangebyrank', KEYS[1], 0, -(tonumber(ARGV[4]) + 1))
+redis.call('set', KEYS[2], now)
+return #items / 2
@@ -0,0 +1,18 @@
+---
+--- 释放某个用户对图片的引用，引用按用户记录在Hash中：field为用户id，value为该用户的引用次数
+--- KEYS[1] 图片引用key  ARGV[1] 用户id
+--- 返回剩余引用的用户数；该用户没有引用（包括未登记的图片）时返回-1
+---
+
+local refs = redis.call('hget', KEYS[1], ARGV[1])
+if (not refs)
+then
+    return -1
+end
+if (tonumber(refs) <= 1)
+then
+    redis.call('hdel', KEYS[1], ARGV[1])
+else
+    redis.call('hincrby', KEYS[1], ARGV[1], -1)
+end
+return redis.call('hlen', KEYS[1])
@@ -0,0 +1,25 @@
+---
+--- 基于Lua脚本实现排队取号，同一用户重复取号返回原号码
+--- KEYS[1] 排队ZSET  KEYS[2] 号码序列  KEYS[3] 库存key
+--- ARGV[1] 用户id  ARGV[2] 排队数据过期时间戳(毫秒)
+--- 返回 号码，-1代表已售罄
+---
+
+-- 已取过号，返回原号码
+local ticket = redis.call('zscore', KEYS[1], ARGV[1])
+if (ticket)
+then
+    return tonumber(ticket)
+end
+-- 已售罄不再发号
+local stock = redis.call('get', KEYS[3])
+if (stock and tonumber(stock) <= 0)
+then
+    return -1
+end
+-- 发号并记录用户的号码
+local next = redis.call('incr', KEYS[2])
+redis.call('zadd', KEYS[1], next, ARGV[1])
+redis.call('pexpireat', KEYS[1], ARGV[2])
+redis.call('pexpireat', KEYS[2], ARGV[2])
+return next
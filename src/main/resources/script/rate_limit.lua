@@ -0,0 +1,54 @@
+---
+--- 基于Lua脚本实现的令牌桶限流，同时校验用户桶与优惠券桶，两者都有令牌时才一起扣减
+--- KEYS[1] 用户桶  KEYS[2] 优惠券桶
+--- ARGV[1] 当前毫秒时间戳
+--- ARGV[2] 用户桶每秒令牌数  ARGV[3] 用户桶容量
+--- ARGV[4] 优惠券桶每秒令牌数  ARGV[5] 优惠券桶容量
+--- 返回 0：放行；1：用户限流；2：优惠券限流
+---
+
+local now = tonumber(ARGV[1])
+
+-- 读取令牌桶并按流逝时间补充令牌
+local function refill(key, rate, burst)
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if (tokens == nil or ts == nil)
+    then
+        return burst
+    end
+    if (now > ts)
+    then
+        tokens = math.min(burst, tokens + (now - ts) * rate / 1000)
+    end
+    return tokens
+end
+
+-- 写回令牌桶，桶补满后自动过期
+local function save(key, tokens, rate, burst)
+    redis.call('hmset', key, 'tokens', tokens, 'ts', now)
+    redis.call('pexpire', key, math.ceil(burst / rate * 1000) + 1000)
+end
+
+local userRate, userBurst = tonumber(ARGV[2]), tonumber(ARGV[3])
+local voucherRate, voucherBurst = tonumber(ARGV[4]), tonumber(ARGV[5])
+
+local userTokens = refill(KEYS[1], userRate, userBurst)
+if (userTokens < 1)
+then
+    save(KEYS[1], userTokens, userRate, userBurst)
+    return 1
+end
+
+local voucherTokens = refill(KEYS[2], voucherRate, voucherBurst)
+if (voucherTokens < 1)
+then
+    save(KEYS[1], userTokens, userRate, userBurst)
+    save(KEYS[2], voucherTokens, voucherRate, voucherBurst)
+    return 2
+end
+
+save(KEYS[1], userTokens - 1, userRate, userBurst)
+save(KEYS[2], voucherTokens - 1, voucherRate, voucherBurst)
+return 0
@@ -0,0 +1,21 @@
+---
+--- 基于Lua脚本实现租约续期
+---
+
+-- 租约的key
+local key = KEYS[1]
+
+-- 当前实例标识
+local ownerId = ARGV[1]
+
+-- 租约有效期，秒
+local ttl = ARGV[2]
+
+-- 只有租约仍由当前实例持有时才续期
+if (redis.call('get', key) == ownerId)
+then
+    redis.call('expire', key, ttl)
+    return 1
+else
+    return 0
+end
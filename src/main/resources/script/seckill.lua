@@ -0,0 +1,30 @@
+---
+--- 基于Lua脚本实现秒杀资格判断：库存校验、一人一单校验、扣减库存、记录下单用户，并把订单发送到消息队列
+--- KEYS[1] 库存key  KEYS[2] 下单用户集合key  KEYS[3] 订单消息队列  KEYS[4] 订单状态key
+--- ARGV[1] 用户id  ARGV[2] 优惠券id  ARGV[3] 订单id  ARGV[4] 订单状态有效期(秒)
+--- 返回 0:有资格 1:库存不足 2:重复下单 3:库存未预热
+---
+
+-- 库存未预热，交由数据库判断
+if (redis.call('exists', KEYS[1]) == 0)
+then
+    return 3
+end
+-- 判断库存是否充足
+if (tonumber(redis.call('get', KEYS[1])) <= 0)
+then
+    return 1
+end
+-- 判断用户是否已下单
+if (redis.call('sismember', KEYS[2], ARGV[1]) == 1)
+then
+    return 2
+end
+-- 扣减库存，记录下单用户
+redis.call('incrby', KEYS[1], -1)
+redis.call('sadd', KEYS[2], ARGV[1])
+-- 发送订单消息 XADD stream.orders * userId voucherId id，由落库线程异步创建订单
+redis.call('xadd', KEYS[3], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+-- 订单状态与下单用户一起保存，只有下单用户可以查询
+redis.call('set', KEYS[4], ARGV[1] .. ':PENDING', 'EX', ARGV[4])
+return 0
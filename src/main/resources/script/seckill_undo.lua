@@ -0,0 +1,11 @@
+---
+--- 基于Lua脚本撤销秒杀资格：数据库下单失败时归还库存并移除下单用户
+--- KEYS[1] 库存key  KEYS[2] 下单用户集合key  ARGV[1] 用户id
+---
+
+if (redis.call('srem', KEYS[2], ARGV[1]) == 1 and redis.call('exists', KEYS[1]) == 1)
+then
+    redis.call('incrby', KEYS[1], 1)
+    return 1
+end
+return 0
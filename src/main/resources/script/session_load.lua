@@ -0,0 +1,19 @@
+---
+--- 读取登录用户，剩余有效期低于阈值时顺带续期，读取与续期只需一次网络往返
+--- KEYS[1] 登录用户key  ARGV[1] 续期阈值，毫秒  ARGV[2] 有效期，毫秒
+--- 返回 {剩余有效期, 字段1, 值1, ...}，用户不存在时返回空列表
+---
+
+local ttl = redis.call('pttl', KEYS[1])
+if (ttl == -2)
+then
+    return {}
+end
+if (ttl >= 0 and ttl < tonumber(ARGV[1]))
+then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    ttl = tonumber(ARGV[2])
+end
+local result = redis.call('hgetall', KEYS[1])
+table.insert(result, 1, tostring(ttl))
+return result
@@ -0,0 +1,12 @@
+---
+--- 修改登录用户的资料，只更新仍然存在的登录，避免写出没有有效期的Hash
+--- KEYS[1] 登录用户key  ARGV 字段1, 值1, ...
+--- 返回 1 已更新，0 登录不存在
+---
+
+if (redis.call('exists', KEYS[1]) == 0)
+then
+    return 0
+end
+redis.call('hset', KEYS[1], unpack(ARGV))
+return 1
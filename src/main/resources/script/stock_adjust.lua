@@ -0,0 +1,10 @@
+---
+--- 基于Lua脚本实现库存增减，库存未预热时不创建key
+--- KEYS[1] 库存key  ARGV[1] 增减数量，负数为扣减
+---
+
+if (redis.call('exists', KEYS[1]) == 1)
+then
+    return redis.call('incrby', KEYS[1], ARGV[1])
+end
+return -1
@@ -4,11 +4,14 @@ import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -73,4 +76,24 @@ class HmDianPingApplicationTests {
         long endTime = System.currentTimeMillis();
         System.out.println("time = " + (endTime - beginTime));
     }
+
+    /**
+     * 全局唯一id并发去重校验
+     */
+    @Test
+    public void testIdUnique() throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(300);
+        Runnable task = () -> {
+            for (int i = 0; i < 100; i++) {
+                ids.add(redisIdWorker.nextId("order"));
+            }
+            latch.countDown();
+        };
+        for (int i = 0; i < 300; i++) {
+            THREAD_EXECUTOR.submit(task);
+        }
+        latch.await();
+        Assertions.assertEquals(300 * 100, ids.size());
+    }
 }
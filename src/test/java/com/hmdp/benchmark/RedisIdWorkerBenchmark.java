@@ -0,0 +1,67 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author MoFany-J
+ * @date 2023/4/2
+ * @description RedisIdWorkerBenchmark 各id生成模式的多线程吞吐量对比（ids/s）
+ * 需要可用的Redis，运行main方法，可通过 -Dredis.host、-Dredis.port、-Dthreads 调整
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RedisIdWorkerBenchmark {
+
+    @Param({"incr", "segment", "snowflake"})
+    public String mode;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private RedisIdWorker redisIdWorker;
+
+    @Setup
+    public void setUp() {
+        connectionFactory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        connectionFactory.afterPropertiesSet();
+        // 手动装配，不启动Spring容器
+        redisIdWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(redisIdWorker, "stringRedisTemplate", new StringRedisTemplate(connectionFactory));
+        ReflectionTestUtils.setField(redisIdWorker, "mode", mode);
+        ReflectionTestUtils.setField(redisIdWorker, "segmentStep", 1000L);
+        redisIdWorker.init();
+    }
+
+    @TearDown
+    public void tearDown() {
+        redisIdWorker.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("benchmark");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RedisIdWorkerBenchmark.class.getSimpleName())
+                .threads(Integer.getInteger("threads", 8))
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,303 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillWaitingRoom;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀下单链路离线压测：嵌入式redis + H2(MySQL模式)，不依赖外部环境
+ * 运行：mvn test -P loadtest -Dloadtest.users=500 -Dloadtest.requestsPerUser=3 -Dloadtest.concurrency=64 -Dloadtest.stock=100
+ * [-Dloadtest.idempotent=true]
+ * 输出吞吐量、延迟分位数，并校验不超卖、一人一单
+ */
+@Tag("loadtest")
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class SeckillLoadTest {
+
+    /**
+     * 虚拟用户数
+     */
+    private static final int USERS = Integer.getInteger("loadtest.users", 500);
+
+    /**
+     * 每个虚拟用户的下单次数（>1 用于验证一人一单）
+     */
+    private static final int REQUESTS_PER_USER = Integer.getInteger("loadtest.requestsPerUser", 3);
+
+    /**
+     * 并发线程数
+     */
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 64);
+
+    /**
+     * 秒杀券库存
+     */
+    private static final int STOCK = Integer.getInteger("loadtest.stock", 100);
+
+    /**
+     * 同一用户的请求是否携带相同的幂等键（模拟客户端重试）
+     */
+    private static final boolean IDEMPOTENT = Boolean.getBoolean("loadtest.idempotent");
+
+    private static RedisServer redisServer;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", () -> port);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Test
+    void seckillUnderLoad() throws Exception {
+        long voucherId = createSeckillVoucher();
+        List<String> tokens = createUsers(voucherId);
+        // 打乱请求顺序，同一用户的重复请求并发到达
+        List<String> requests = new ArrayList<>(USERS * REQUESTS_PER_USER);
+        for (int i = 0; i < REQUESTS_PER_USER; i++) {
+            requests.addAll(tokens);
+        }
+        Collections.shuffle(requests);
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(CONCURRENCY))
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        URI uri = URI.create("http://127.0.0.1:" + port + "/voucher-order/seckill/" + voucherId);
+        long[] latencies = new long[requests.size()];
+        AtomicInteger success = new AtomicInteger();
+        // 订单id -> 下单用户的token，只有下单用户可以查询订单状态
+        Map<Long, String> successOrderIds = new ConcurrentHashMap<>();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService users = Executors.newFixedThreadPool(CONCURRENCY);
+        CountDownLatch latch = new CountDownLatch(requests.size());
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < requests.size(); i++) {
+            int index = i;
+            String token = requests.get(i);
+            users.submit(() -> {
+                HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                        .header("authorization", token)
+                        .POST(HttpRequest.BodyPublishers.noBody());
+                if (IDEMPOTENT) {
+                    builder.header("Idempotency-Key", "retry-" + token);
+                }
+                HttpRequest request = builder.build();
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                    latencies[index] = System.nanoTime() - start;
+                    if (response.statusCode() != 200) {
+                        rejected.incrementAndGet();
+                    } else {
+                        JSONObject body = JSONUtil.parseObj(response.body());
+                        if (body.getBool("success", false)) {
+                            success.incrementAndGet();
+                            successOrderIds.put(body.getLong("data"), token);
+                        }
+                    }
+                } catch (Exception e) {
+                    latencies[index] = System.nanoTime() - start;
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - begin;
+        users.shutdown();
+
+        // 长轮询查询异步下单结果
+        long placed = awaitStatuses(client, successOrderIds);
+        // 等待异步落库完成后再校验
+        List<VoucherOrder> orders = awaitOrders(voucherId);
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        int finalStock = seckillVoucher.getStock();
+        String redisStock = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId);
+        long duplicateUsers = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getUserId, Collectors.counting()))
+                .values().stream().filter(count -> count > 1).count();
+        int oversold = Math.max(0, orders.size() - STOCK);
+
+        Arrays.sort(latencies);
+        System.out.println("========== seckill load test ==========");
+        System.out.printf("users=%d, requests=%d, concurrency=%d, stock=%d%n",
+                USERS, requests.size(), CONCURRENCY, STOCK);
+        System.out.printf("elapsed=%.1fms, throughput=%.1f req/s%n",
+                elapsed / 1e6, requests.size() / (elapsed / 1e9));
+        System.out.printf("latency p50=%.2fms p90=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n",
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 99.9), latencies[latencies.length - 1] / 1e6);
+        System.out.printf("success=%d, distinctOrderIds=%d, rejected(non-200)=%d, errors=%d%n",
+                success.get(), successOrderIds.size(), rejected.get(), errors.get());
+        System.out.printf("statusSuccess=%d%n", placed);
+        System.out.printf("orders=%d, finalStock=%d, redisStock=%s, oversold=%d, duplicateUsers=%d%n",
+                orders.size(), finalStock, redisStock, oversold, duplicateUsers);
+        System.out.println("=======================================");
+
+        Assertions.assertTrue(finalStock >= 0, "库存为负");
+        Assertions.assertEquals(0, oversold, "超卖");
+        Assertions.assertEquals(0, duplicateUsers, "同一用户重复下单");
+        Assertions.assertEquals(STOCK, orders.size() + finalStock, "订单数与库存扣减不一致");
+        Assertions.assertEquals(successOrderIds.size(), orders.size(), "成功响应的订单数与实际订单数不一致");
+        Assertions.assertEquals(orders.size(), placed, "下单结果查询与实际订单数不一致");
+        if (redisStock != null) {
+            Assertions.assertEquals(finalStock, Integer.parseInt(redisStock), "redis库存与数据库库存不一致");
+        }
+    }
+
+    /**
+     * 通过业务接口创建一张正在秒杀中的券
+     */
+    private long createSeckillVoucher() {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 直接在redis中写入登录态，模拟已登录并已排队取号的虚拟用户
+     */
+    private List<String> createUsers(long voucherId) {
+        List<String> tokens = new ArrayList<>(USERS);
+        for (long userId = 1; userId <= USERS; userId++) {
+            String token = UUID.randomUUID().toString(true);
+            Map<String, String> userMap = new HashMap<>();
+            userMap.put("id", String.valueOf(userId));
+            userMap.put("nickName", "loadtest_" + userId);
+            userMap.put("icon", "");
+            stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + token, userMap);
+            seckillWaitingRoom.enqueue(voucherId, userId);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * 通过长轮询接口查询每个订单的下单结果，返回下单成功的数量
+     */
+    private long awaitStatuses(HttpClient client, Map<Long, String> orderTokens) throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>(orderTokens.size());
+        for (Map.Entry<Long, String> entry : orderTokens.entrySet()) {
+            Long orderId = entry.getKey();
+            String token = entry.getValue();
+            HttpRequest request = HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + port + "/voucher-order/status/" + orderId + "?wait=10"))
+                    .header("authorization", token)
+                    .GET().build();
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        long placed = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            JSONObject body = JSONUtil.parseObj(response.get().body());
+            JSONObject data = body.getJSONObject("data");
+            if (data != null && "SUCCESS".equals(data.getStr("status"))) {
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * 订单数连续稳定后返回，兼容异步下单
+     */
+    private List<VoucherOrder> awaitOrders(long voucherId) throws InterruptedException {
+        Function<Long, List<VoucherOrder>> query = id -> voucherOrderService.query().eq("voucher_id", id).list();
+        List<VoucherOrder> orders = query.apply(voucherId);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        int stableRounds = 0;
+        while (stableRounds < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(200);
+            List<VoucherOrder> current = query.apply(voucherId);
+            stableRounds = current.size() == orders.size() ? stableRounds + 1 : 0;
+            orders = current;
+        }
+        return orders;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
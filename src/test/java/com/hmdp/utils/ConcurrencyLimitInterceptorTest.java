@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.WebExceptionAdvice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 秒杀并发限制：下单异常被全局异常处理转换为200响应后，仍要按失败收缩并发上限
+ */
+class ConcurrencyLimitInterceptorTest {
+
+    private static final int INITIAL_LIMIT = 20;
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    private ConcurrencyLimitInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new AdaptiveConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(limiter, "initialLimit", INITIAL_LIMIT);
+        ReflectionTestUtils.setField(limiter, "minLimit", 4);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 200);
+        ReflectionTestUtils.setField(limiter, "tolerance", 2.0);
+        limiter.init();
+        interceptor = new ConcurrencyLimitInterceptor(limiter);
+    }
+
+    @Test
+    void exceptionHandledByAdviceShrinksLimit() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Assertions.assertTrue(interceptor.preHandle(request, response, null));
+        // 下单抛出异常，由全局异常处理返回 Result.fail，响应状态仍为200
+        new WebExceptionAdvice().handleRuntimeException(new IllegalStateException("数据库超时"), request);
+        interceptor.afterCompletion(request, response, null, null);
+        Assertions.assertEquals(200, response.getStatus());
+        Assertions.assertTrue(limit() < INITIAL_LIMIT);
+    }
+
+    @Test
+    void successKeepsLimit() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Assertions.assertTrue(interceptor.preHandle(request, response, null));
+        interceptor.afterCompletion(request, response, null, null);
+        Assertions.assertEquals(INITIAL_LIMIT, limit());
+    }
+
+    @Test
+    void repeatedFailuresStopAtMinLimit() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            Assertions.assertTrue(interceptor.preHandle(request, response, null));
+            interceptor.afterCompletion(request, response, null, new IllegalStateException());
+        }
+        Assertions.assertEquals(4, limit());
+    }
+
+    private int limit() {
+        return (int) ReflectionTestUtils.getField(limiter, "limit");
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.mockito.ArgumentMatchers.*;
+
+/**
+ * 幂等执行：最终结果重放时直接返回，可以重试的失败结果不保存
+ */
+class IdempotentExecutorTest {
+
+    private static final String QUEUEING = "排队中，请稍后再试!";
+
+    private static final Predicate<Result> RETRYABLE = result -> QUEUEING.equals(result.getErrorMsg());
+
+    private IdempotentExecutor idempotentExecutor;
+
+    /**
+     * Redis中的幂等键
+     */
+    private final Map<String, String> values = new HashMap<>();
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = Mockito.mock(ValueOperations.class);
+        Mockito.when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(invocation -> values.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+        Mockito.doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(valueOperations).set(anyString(), anyString(), anyLong(), any(TimeUnit.class));
+        Mockito.when(valueOperations.get(anyString())).thenAnswer(invocation -> values.get(invocation.<String>getArgument(0)));
+        Mockito.when(stringRedisTemplate.delete(anyString()))
+                .thenAnswer(invocation -> values.remove(invocation.<String>getArgument(0)) != null);
+        idempotentExecutor = new IdempotentExecutor();
+        ReflectionTestUtils.setField(idempotentExecutor, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @Test
+    void retryAfterRetryableFailureExecutesAgain() {
+        Result first = idempotentExecutor.execute("seckill:1:1", "key", () -> {
+            executions.incrementAndGet();
+            return Result.fail(QUEUEING);
+        }, RETRYABLE);
+        Assertions.assertEquals(QUEUEING, first.getErrorMsg());
+        Assertions.assertTrue(values.isEmpty());
+        // 放行后用同一幂等键重试，重新执行并得到新的结果
+        Result second = idempotentExecutor.execute("seckill:1:1", "key", () -> {
+            executions.incrementAndGet();
+            return Result.ok(100L);
+        }, RETRYABLE);
+        Assertions.assertTrue(second.getSuccess());
+        Assertions.assertEquals(2, executions.get());
+    }
+
+    @Test
+    void terminalFailureIsReplayed() {
+        idempotentExecutor.execute("seckill:1:1", "key", () -> {
+            executions.incrementAndGet();
+            return Result.fail("库存不足!");
+        }, RETRYABLE);
+        Result replay = idempotentExecutor.execute("seckill:1:1", "key", () -> {
+            executions.incrementAndGet();
+            return Result.ok(100L);
+        }, RETRYABLE);
+        Assertions.assertEquals("库存不足!", replay.getErrorMsg());
+        Assertions.assertEquals(1, executions.get());
+    }
+
+    @Test
+    void successIsReplayed() {
+        idempotentExecutor.execute("seckill:1:1", "key", () -> Result.ok(100L), RETRYABLE);
+        Result replay = idempotentExecutor.execute("seckill:1:1", "key", () -> {
+            executions.incrementAndGet();
+            return Result.ok(200L);
+        }, RETRYABLE);
+        Assertions.assertTrue(replay.getSuccess());
+        Assertions.assertEquals(100, ((Number) replay.getData()).longValue());
+        Assertions.assertEquals(0, executions.get());
+    }
+}
@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.SocketUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 全局唯一id并发去重校验，各生成模式使用嵌入式Redis，不依赖本地环境
+ */
+class RedisIdWorkerTest {
+
+    private static final int THREADS = 300;
+    private static final int IDS_PER_THREAD = 100;
+
+    private static RedisServer redisServer;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = SocketUtils.findAvailableTcpPort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("127.0.0.1", port);
+        connectionFactory.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"incr", "segment", "snowflake"})
+    void idsAreUnique(String mode) throws InterruptedException {
+        RedisIdWorker redisIdWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(redisIdWorker, "stringRedisTemplate", new StringRedisTemplate(connectionFactory));
+        ReflectionTestUtils.setField(redisIdWorker, "mode", mode);
+        // 号段较小，并发时会多次切换号段
+        ReflectionTestUtils.setField(redisIdWorker, "segmentStep", 100L);
+        redisIdWorker.init();
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        try {
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            CountDownLatch latch = new CountDownLatch(THREADS);
+            Runnable task = () -> {
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    ids.add(redisIdWorker.nextId("order"));
+                }
+                latch.countDown();
+            };
+            for (int i = 0; i < THREADS; i++) {
+                executor.submit(task);
+            }
+            latch.await();
+            Assertions.assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+        } finally {
+            executor.shutdownNow();
+            redisIdWorker.shutdown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.SocketUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+
+/**
+ * 修改资料后当前token立即读到新资料，已失效的登录不会被重新写入
+ */
+class SessionCacheTest {
+
+    private static RedisServer redisServer;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SessionCache sessionCache;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = SocketUtils.findAvailableTcpPort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("127.0.0.1", port);
+        connectionFactory.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        sessionCache = new SessionCache();
+        ReflectionTestUtils.setField(sessionCache, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(sessionCache, "redisMessageListenerContainer",
+                Mockito.mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(sessionCache, "mode", SessionCache.MODE_REDIS);
+        ReflectionTestUtils.setField(sessionCache, "renewThreshold", 20L);
+        ReflectionTestUtils.setField(sessionCache, "localTtl", 5L);
+        sessionCache.init();
+    }
+
+    @Test
+    void refreshUpdatesCurrentSession() {
+        String token = sessionCache.create(user("旧昵称"));
+        // 先读一次，让本地缓存持有旧资料
+        Assertions.assertEquals("旧昵称", sessionCache.get(token).getNickName());
+        sessionCache.refresh(token, user("新昵称"));
+        UserDTO current = sessionCache.get(token);
+        Assertions.assertEquals(1L, current.getId());
+        Assertions.assertEquals("新昵称", current.getNickName());
+        Assertions.assertEquals("icon.png", current.getIcon());
+    }
+
+    @Test
+    void refreshDoesNotRestoreExpiredSession() {
+        String token = sessionCache.create(user("旧昵称"));
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        sessionCache.refresh(token, user("新昵称"));
+        Assertions.assertFalse(stringRedisTemplate.hasKey(LOGIN_USER_KEY + token));
+        Assertions.assertNull(sessionCache.get(token));
+    }
+
+    private static UserDTO user(String nickName) {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName(nickName);
+        user.setIcon("icon.png");
+        return user;
+    }
+}
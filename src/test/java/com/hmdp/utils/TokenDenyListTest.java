@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_DENY_KEY;
+import static org.mockito.ArgumentMatchers.*;
+
+/**
+ * token吊销名单：布隆过滤器未命中时不访问Redis，命中时以Redis为准
+ */
+class TokenDenyListTest {
+
+    private TokenDenyList tokenDenyList;
+
+    private ZSetOperations<String, String> zSetOperations;
+
+    /**
+     * Redis中的吊销名单
+     */
+    private final Set<String> denied = new HashSet<>();
+
+    /**
+     * 向Redis确认过的编号
+     */
+    private final List<String> lookups = new ArrayList<>();
+
+    /**
+     * 模拟Redis不可用
+     */
+    private boolean redisDown;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        zSetOperations = Mockito.mock(ZSetOperations.class);
+        Mockito.when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        Mockito.when(zSetOperations.add(eq(LOGIN_DENY_KEY), anyString(), anyDouble())).thenAnswer(invocation -> {
+            denied.add(invocation.getArgument(1));
+            return true;
+        });
+        Mockito.when(zSetOperations.score(eq(LOGIN_DENY_KEY), any())).thenAnswer(invocation -> {
+            String id = invocation.getArgument(1);
+            if (redisDown) {
+                throw new RedisConnectionFailureException("redis down");
+            }
+            lookups.add(id);
+            return denied.contains(id) ? 1.0 : null;
+        });
+        Mockito.when(zSetOperations.rangeByScore(eq(LOGIN_DENY_KEY), anyDouble(), anyDouble()))
+                .thenAnswer(invocation -> new HashSet<>(denied));
+        tokenDenyList = new TokenDenyList();
+        ReflectionTestUtils.setField(tokenDenyList, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(tokenDenyList, "redisMessageListenerContainer",
+                Mockito.mock(RedisMessageListenerContainer.class));
+        tokenDenyList.init();
+    }
+
+    @Test
+    void deniedTokenIsRejected() {
+        long expireAt = System.currentTimeMillis() + 60_000;
+        tokenDenyList.deny("jti-1", expireAt);
+        Mockito.verify(zSetOperations).add(LOGIN_DENY_KEY, "jti-1", expireAt);
+        Assertions.assertTrue(tokenDenyList.isDenied("jti-1"));
+        Assertions.assertFalse(tokenDenyList.isDenied("jti-2"));
+    }
+
+    @Test
+    void deniedTokenSurvivesRebuild() {
+        tokenDenyList.deny("jti-1", System.currentTimeMillis() + 60_000);
+        tokenDenyList.rebuild();
+        Assertions.assertTrue(tokenDenyList.isDenied("jti-1"));
+    }
+
+    @Test
+    void falsePositiveIsAnsweredFromRedis() {
+        // 名单远超过滤器容量，必然出现误判
+        for (int i = 0; i < 5000; i++) {
+            tokenDenyList.deny("denied-" + i, System.currentTimeMillis() + 60_000);
+        }
+        lookups.clear();
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertFalse(tokenDenyList.isDenied("valid-" + i));
+        }
+        Assertions.assertFalse(lookups.isEmpty(), "过滤器应有误判并向Redis确认");
+        Assertions.assertTrue(lookups.stream().allMatch(id -> id.startsWith("valid-")));
+    }
+
+    @Test
+    void redisErrorIsNotCached() {
+        tokenDenyList.deny("jti-1", System.currentTimeMillis() + 60_000);
+        // 编号已从名单移除（如已过期），但仍在过滤器中
+        denied.remove("jti-1");
+        redisDown = true;
+        Assertions.assertTrue(tokenDenyList.isDenied("jti-1"), "Redis不可用时按已吊销处理");
+        redisDown = false;
+        Assertions.assertFalse(tokenDenyList.isDenied("jti-1"), "Redis恢复后重新确认");
+    }
+
+    @Test
+    void filterMissDoesNotQueryRedis() {
+        tokenDenyList.deny("jti-1", System.currentTimeMillis() + 60_000);
+        lookups.clear();
+        for (int i = 0; i < 100; i++) {
+            tokenDenyList.isDenied("valid-" + i);
+        }
+        // 容量1024的过滤器中只有1个编号，误判率远低于1%
+        Assertions.assertTrue(lookups.size() <= 1);
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 签名token的签发与校验
+ */
+class TokenSignerTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private TokenSigner tokenSigner;
+
+    @BeforeEach
+    void setUp() {
+        tokenSigner = signer(SECRET, 30);
+    }
+
+    @Test
+    void verifyIssuedToken() {
+        TokenSigner.SignedToken issued = tokenSigner.issue(user());
+        TokenSigner.SignedToken verified = tokenSigner.verify(issued.getToken());
+        Assertions.assertNotNull(verified);
+        Assertions.assertEquals(issued.getTokenId(), verified.getTokenId());
+        Assertions.assertEquals(1L, verified.getUser().getId());
+        Assertions.assertEquals("小明", verified.getUser().getNickName());
+        Assertions.assertEquals("/imgs/icons/a.jpg", verified.getUser().getIcon());
+    }
+
+    @Test
+    void rejectTamperedSignature() {
+        String token = tokenSigner.issue(user()).getToken();
+        char last = token.charAt(token.length() - 1);
+        String tampered = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+        Assertions.assertNull(tokenSigner.verify(tampered));
+    }
+
+    @Test
+    void rejectTamperedPayload() {
+        String token = tokenSigner.issue(user()).getToken();
+        String signature = token.substring(token.indexOf('.') + 1);
+        String payload = "{\"id\":2,\"exp\":" + Long.MAX_VALUE + ",\"jti\":\"x\"}";
+        String forged = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "." + signature;
+        Assertions.assertNull(tokenSigner.verify(forged));
+    }
+
+    @Test
+    void rejectTokenSignedWithOtherSecret() {
+        String token = signer("fedcba9876543210fedcba9876543210", 30).issue(user()).getToken();
+        Assertions.assertNull(tokenSigner.verify(token));
+    }
+
+    @Test
+    void rejectExpiredToken() {
+        String token = signer(SECRET, -1).issue(user()).getToken();
+        Assertions.assertNull(tokenSigner.verify(token));
+    }
+
+    @Test
+    void rejectWrongPartCount() {
+        String token = tokenSigner.issue(user()).getToken();
+        Assertions.assertNull(tokenSigner.verify(token + ".extra"));
+        Assertions.assertNull(tokenSigner.verify(token.substring(0, token.indexOf('.'))));
+        Assertions.assertNull(tokenSigner.verify("." + token.substring(token.indexOf('.') + 1)));
+        Assertions.assertNull(tokenSigner.verify("!!!.???"));
+    }
+
+    @Test
+    void rejectShortSecret() {
+        Assertions.assertThrows(IllegalStateException.class, () -> signer("too-short", 30));
+    }
+
+    private TokenSigner signer(String secret, long ttl) {
+        TokenSigner signer = new TokenSigner();
+        ReflectionTestUtils.setField(signer, "secret", secret);
+        ReflectionTestUtils.setField(signer, "signedTtl", ttl);
+        ReflectionTestUtils.setField(signer, "mode", SessionCache.MODE_SIGNED);
+        signer.init();
+        return signer;
+    }
+
+    private UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("小明");
+        user.setIcon("/imgs/icons/a.jpg");
+        return user;
+    }
+}